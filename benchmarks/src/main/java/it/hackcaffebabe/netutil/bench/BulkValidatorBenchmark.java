@@ -0,0 +1,84 @@
+package it.hackcaffebabe.netutil.bench;
+
+import it.hackcaffebabe.netutil.mail.BulkValidator;
+import it.hackcaffebabe.netutil.mail.NetUser;
+import it.hackcaffebabe.netutil.mail.ValidationReport;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Validation and deduplication of a list of one million recipients, one invalid every ten, with
+ * {@link BulkValidator} on pools of different parallelism and with a {@link NetUser} constructor for each entry.
+ *
+ * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class BulkValidatorBenchmark
+{
+	private static final String[] DOMAINS = { "example.com", "Example.COM", "mail.example.org", "bad..example.com" };
+
+	@Param({ "1", "2", "4", "8" })
+	private int parallelism;
+
+	private String[] emails;
+	private ForkJoinPool pool;
+	private BulkValidator validator;
+
+	@Setup(Level.Trial)
+	public void setup(){
+		Random r = new Random( 42 );
+		this.emails = new String[1000000];
+		for(int i = 0; i < this.emails.length; i++)
+			this.emails[i] = "user." + r.nextInt( this.emails.length ) + "@" + DOMAINS[r.nextInt( DOMAINS.length )];
+		this.pool = new ForkJoinPool( this.parallelism );
+		this.validator = new BulkValidator( this.pool );
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown(){
+		this.pool.shutdown();
+	}
+
+	@Benchmark
+	public ValidationReport validate(){
+		return this.validator.validate( this.emails );
+	}
+
+	@Benchmark
+	public int constructAndCatch(){
+		Set<String> seen = new HashSet<>();
+		int invalid = 0;
+		for(String s: this.emails) {
+			try {
+				NetUser u = new NetUser( s );
+				seen.add( u.getUser() + "@" + u.getDomain().toLowerCase() );
+			} catch(IllegalArgumentException e) {
+				invalid++;
+			}
+		}
+		return seen.size() + invalid;
+	}
+}
@@ -0,0 +1,62 @@
+package it.hackcaffebabe.netutil.bench;
+
+import it.hackcaffebabe.netutil.util.MacFormat;
+import it.hackcaffebabe.netutil.util.NetUtil;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * Formatting of MAC addresses with {@link NetUtil#getCustomMACFormat(NetworkInterface)} and {@link MacFormat}.
+ *
+ * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MacFormatBenchmark
+{
+	private List<NetworkInterface> interfaces;
+	private byte[] mac = { 0x02, (byte) 0xFC, 0x00, 0x1A, (byte) 0xB3, 0x7F };
+	private char[] buffer = new char[17];
+
+	@Setup
+	public void setup() throws SocketException{
+		this.interfaces = NetUtil.getInterfaces();
+	}
+
+	/* Includes the system call of NetworkInterface.getHardwareAddress() */
+	@Benchmark
+	public void getCustomMACFormat(Blackhole bh) throws SocketException{
+		for(NetworkInterface i: this.interfaces)
+			bh.consume( NetUtil.getCustomMACFormat( i ) );
+	}
+
+	@Benchmark
+	public String formatString(){
+		return MacFormat.format( this.mac );
+	}
+
+	@Benchmark
+	public char[] formatInto(){
+		MacFormat.format( this.mac, ':', this.buffer, 0 );
+		return this.buffer;
+	}
+}
@@ -0,0 +1,123 @@
+package it.hackcaffebabe.netutil.bench;
+
+import it.hackcaffebabe.netutil.mail.NetUser;
+import it.hackcaffebabe.netutil.mail.SimpleMessage;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Building a {@link SimpleMessage} with attachments of different sizes, and its MIME serialization as the transport
+ * does it, live and after {@link SimpleMessage#freeze()}.
+ *
+ * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageBenchmark
+{
+	/**Headers not written by SMTPTransport*/
+	private static final String[] TRANSPORT_IGNORED = { "Bcc", "Content-Length" };
+
+	@Param({ "0", "1024", "1048576", "10485760" })
+	private int attachmentSize;
+
+	private Session session;
+	private File attachment;
+	private List<File> attachments;
+	private SimpleMessage built;
+	private SimpleMessage frozen;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, MessagingException{
+		this.session = Session.getInstance( new Properties() );
+		if(this.attachmentSize > 0) {
+			byte[] data = new byte[this.attachmentSize];
+			new Random( 42 ).nextBytes( data );
+			this.attachment = File.createTempFile( "bench", ".bin" );
+			Files.write( this.attachment.toPath(), data );
+			this.attachments = Collections.singletonList( this.attachment );
+		}
+		this.built = this.build();
+		this.built.saveChanges();
+		this.frozen = this.build();
+		this.frozen.freeze();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown(){
+		if(this.attachment != null)
+			this.attachment.delete();
+	}
+
+	@Benchmark
+	public SimpleMessage setBodyMessage() throws MessagingException{
+		return this.build();
+	}
+
+	@Benchmark
+	public long writeTo() throws IOException, MessagingException{
+		CountingStream out = new CountingStream();
+		this.built.writeTo( out, TRANSPORT_IGNORED );
+		return out.count;
+	}
+
+	@Benchmark
+	public long writeFrozen() throws IOException, MessagingException{
+		CountingStream out = new CountingStream();
+		this.frozen.writeTo( out, TRANSPORT_IGNORED );
+		return out.count;
+	}
+
+	private SimpleMessage build() throws MessagingException{
+		SimpleMessage m = new SimpleMessage( this.session );
+		m.setSender( new NetUser( "sender@example.com" ) );
+		m.setRecipient( new NetUser( "recipient@example.com" ) );
+		m.setSubject( "Benchmark" );
+		m.setBodyMessage( "Hello, this is the text of benchmark message.", this.attachments );
+		return m;
+	}
+
+	/* Discards the bytes, counting them. */
+	private static final class CountingStream extends OutputStream
+	{
+		long count;
+
+		@Override
+		public void write(int b){
+			this.count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len){
+			this.count += len;
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package it.hackcaffebabe.netutil.bench;
+
+import it.hackcaffebabe.netutil.mail.NetUser;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Construction and validation of {@link NetUser}.
+ *
+ * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NetUserBenchmark
+{
+	private String valid = "some.user_name-01@mail.example.com";
+	private String invalid = "some.user..name@mail.example.c0m";
+
+	@Benchmark
+	public NetUser construct(){
+		return new NetUser( this.valid );
+	}
+
+	@Benchmark
+	public String constructAndSplit(){
+		NetUser u = new NetUser( this.valid );
+		return u.getUser() + u.getDomain();
+	}
+
+	@Benchmark
+	public boolean validateValid(){
+		return NetUser.isValid( this.valid );
+	}
+
+	@Benchmark
+	public boolean validateInvalid(){
+		return NetUser.isValid( this.invalid );
+	}
+}
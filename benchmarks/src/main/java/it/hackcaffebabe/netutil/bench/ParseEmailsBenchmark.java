@@ -0,0 +1,61 @@
+package it.hackcaffebabe.netutil.bench;
+
+import it.hackcaffebabe.netutil.mail.NetUser;
+import it.hackcaffebabe.netutil.mail.RecipientReader;
+import it.hackcaffebabe.netutil.mail.SimpleMessage;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * Parsing of recipient lists with {@link SimpleMessage#parseEmails(String)} and {@link RecipientReader}.
+ *
+ * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseEmailsBenchmark
+{
+	@Param({ "10", "1000", "100000" })
+	private int recipients;
+
+	private String list;
+
+	@Setup
+	public void setup(){
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < this.recipients; i++)
+			sb.append( "user" ).append( i ).append( "@domain" ).append( i % 100 ).append( ".com; " );
+		this.list = sb.toString().trim();
+	}
+
+	@Benchmark
+	public List<NetUser> parseEmails(){
+		return SimpleMessage.parseEmails( this.list );
+	}
+
+	@Benchmark
+	public void recipientReader(Blackhole bh){
+		RecipientReader r = new RecipientReader( new StringReader( this.list ) );
+		while( r.hasNext() )
+			bh.consume( r.next() );
+	}
+}
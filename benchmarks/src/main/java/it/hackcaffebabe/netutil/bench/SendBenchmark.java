@@ -0,0 +1,99 @@
+package it.hackcaffebabe.netutil.bench;
+
+import it.hackcaffebabe.netutil.mail.MailerManager;
+import it.hackcaffebabe.netutil.mail.NetUser;
+import it.hackcaffebabe.netutil.mail.SimpleMessage;
+import it.hackcaffebabe.netutil.support.SmtpStub;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Throughput of {@link MailerManager#send(SimpleMessage)} against a {@link SmtpStub} on loopback, in clear and
+ * with STARTTLS.<br>
+ * Run it with more threads, like <code>-t 8</code>, to measure the connection pool.
+ *
+ * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(1)
+@Fork(1)
+public class SendBenchmark
+{
+	@Param({ "false", "true" })
+	public boolean tls;
+
+	private SmtpStub stub;
+	private File configuration;
+	private MailerManager mailer;
+	private Session session;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, MessagingException{
+		this.stub = new SmtpStub( 0 );
+		this.stub.setCredentials( "bench", "bench" );
+		if(this.tls)
+			this.stub.enableStartTls();
+		this.stub.start();
+		Properties p = new Properties();
+		p.setProperty( "mail.smtp.host", "127.0.0.1" );
+		p.setProperty( "mail.smtp.port", Integer.toString( this.stub.getPort() ) );
+		p.setProperty( "mail.smtp.auth", "true" );
+		if(this.tls) {
+			p.setProperty( "mail.smtp.starttls.enable", "true" );
+			p.setProperty( "mail.smtp.starttls.required", "true" );
+			p.setProperty( "mail.smtp.ssl.trust", "*" );
+			p.setProperty( "mail.smtp.ssl.protocols", "TLSv1.2" );
+		}
+		p.setProperty( "mailer.pool.maxConnections", "8" );
+		this.configuration = File.createTempFile( "mailer", ".properties" );
+		try (OutputStream out = new FileOutputStream( this.configuration )) {
+			p.store( out, null );
+		}
+
+		this.mailer = new MailerManager( this.configuration );
+		this.session = this.mailer.login( "bench", "bench" );
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException{
+		this.mailer.shutdown();
+		this.stub.close();
+		this.configuration.delete();
+	}
+
+	@Benchmark
+	public void send() throws MessagingException{
+		SimpleMessage m = new SimpleMessage( this.session );
+		m.setSender( new NetUser( "sender@example.com" ) );
+		m.setRecipient( new NetUser( "recipient@example.com" ) );
+		m.setSubject( "Benchmark" );
+		m.setBodyMessage( "Hello, this is the text of benchmark message.", null );
+		this.mailer.send( m );
+	}
+}
@@ -0,0 +1,295 @@
+package it.hackcaffebabe.netutil.mail;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiFunction;
+
+
+/**
+ * <p>
+ * Validates and removes the duplicates of large lists of recipients, splitting the work across a
+ * {@link ForkJoinPool}.<br>
+ * An entry is valid if {@link NetUser#NetUser(String)} accepts it, but no exception is created for the invalid
+ * ones. Two valid entries are the same recipient if they differ only by the case of domain: only the first one into
+ * the list is kept. The result is a {@link ValidationReport} with the valid recipients and the invalid entries, both
+ * in the same order of list.
+ * </p>
+ * Use it like this:
+ * <pre>
+ * ValidationReport report = new BulkValidator().validate( Paths.get( "list.txt" ), StandardCharsets.UTF_8 );
+ * System.out.println( report ); // 982311 valid, 1204 invalid, 16485 duplicates
+ * </pre>
+ * The entries are validated in chunks of {@value #CHUNK}, so the lists shorter than that use only one thread.
+ *
+ * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
+ * @version 1.0
+ */
+public class BulkValidator
+{
+	/**Entries validated by one task*/
+	public static final int CHUNK = 4096;
+	/**Marks the valid entries removed as duplicates*/
+	private static final NetUser DUPLICATE = new NetUser();
+	private static final BiFunction<Integer, Integer, Integer> MIN = new BiFunction<Integer, Integer, Integer>(){
+		@Override
+		public Integer apply(Integer a, Integer b){
+			return a.intValue() <= b.intValue() ? a : b;
+		}
+	};
+
+	private final ForkJoinPool pool;
+
+	/**
+	 * Instance a validator that uses the common pool, see {@link ForkJoinPool#commonPool()}.
+	 */
+	public BulkValidator(){
+		this( ForkJoinPool.commonPool() );
+	}
+
+	/**
+	 * Instance a validator that uses the pool given.
+	 * @param pool {@link ForkJoinPool} the pool of threads that validate.
+	 * @throws IllegalArgumentException if pool is null.
+	 */
+	public BulkValidator(ForkJoinPool pool) throws IllegalArgumentException{
+		if(pool == null)
+			throw new IllegalArgumentException( "Pool can not be null." );
+		this.pool = pool;
+	}
+
+//====================================================================================================//
+// METHOD
+//====================================================================================================//
+	/**
+	 * Validates the emails given, the array is not modified. The null entries are invalid.
+	 * @param emails {@link String} array of emails.
+	 * @return {@link ValidationReport} the valid and invalid partitions of emails.
+	 * @throws IllegalArgumentException if emails is null.
+	 */
+	public ValidationReport validate(String[] emails) throws IllegalArgumentException{
+		if(emails == null)
+			throw new IllegalArgumentException( "Emails can not be null." );
+		return new Job( emails, null ).run( this.pool );
+	}
+
+	/**
+	 * Validates the emails given, in order of iteration. The null entries are invalid.
+	 * @param emails {@link Collection} of {@link String} emails.
+	 * @return {@link ValidationReport} the valid and invalid partitions of emails.
+	 * @throws IllegalArgumentException if emails is null.
+	 */
+	public ValidationReport validate(Collection<String> emails) throws IllegalArgumentException{
+		if(emails == null)
+			throw new IllegalArgumentException( "Emails can not be null." );
+		return new Job( emails.toArray( new String[emails.size()] ), null ).run( this.pool );
+	}
+
+	/**
+	 * Validates the list of recipients into the file given, with the same format read by {@link RecipientReader}:
+	 * the blank entries are ignored and the entries longer than {@value RecipientReader#MAX_ENTRY} chars are invalid.
+	 * The file is read by the calling thread, then validated in parallel.
+	 * @param file {@link Path} the list of recipients.
+	 * @param charset {@link Charset} the charset of list, the bytes that can not be decoded make their entry invalid.
+	 * @return {@link ValidationReport} the valid and invalid partitions of list.
+	 * @throws IllegalArgumentException if file or charset are null.
+	 * @throws IOException if the file can not be read.
+	 */
+	public ValidationReport validate(Path file, Charset charset) throws IllegalArgumentException, IOException{
+		if(file == null || charset == null)
+			throw new IllegalArgumentException( "File and charset can not be null." );
+
+		final List<String> entries = new ArrayList<>();
+		final BitSet rejected = new BitSet();
+		try (RecipientReader r = new RecipientReader( FileChannel.open( file ), charset )) {
+			r.setInvalidListener( new RecipientReader.InvalidListener(){
+				@Override
+				public void onInvalid(String entry, long line, String reason){
+					rejected.set( entries.size() );
+					entries.add( entry );
+				}
+			} );
+			String e;
+			while( (e = r.nextEntry()) != null )
+				entries.add( e );
+		}
+		return new Job( entries.toArray( new String[entries.size()] ), rejected ).run( this.pool );
+	}
+
+	/*
+	 * Returns the email with the domain in lower case, the same key for the duplicates. The domain of a valid
+	 * email has only ASCII letters, digits and dots, so the email itself is returned if it's already lower case.
+	 */
+	static String key(String email, int at){
+		for(int i = at + 1; i < email.length(); i++) {
+			char c = email.charAt( i );
+			if(c >= 'A' && c <= 'Z') {
+				char[] chars = email.toCharArray();
+				for(int j = i; j < chars.length; j++)
+					if(chars[j] >= 'A' && chars[j] <= 'Z')
+						chars[j] += 'a' - 'A';
+				return new String( chars );
+			}
+		}
+		return email;
+	}
+
+//====================================================================================================//
+// GETTER
+//====================================================================================================//
+	/**
+	 * Returns the pool of threads that validate.
+	 * @return {@link ForkJoinPool} the pool.
+	 */
+	public ForkJoinPool getPool(){
+		return this.pool;
+	}
+
+//====================================================================================================//
+// INNER CLASS
+//====================================================================================================//
+	/*
+	 * The validation of one list, in three parallel passes over the chunks of entries:
+	 * VALIDATE creates the NetUser of valid entries and keeps into first the lowest index of each key;
+	 * COUNT marks the duplicates, that are not at the index of their key, and counts the entries of each partition;
+	 * FILL copies each chunk into the partitions, at the offsets summed from the counts of the chunks before it.
+	 */
+	private static final class Job
+	{
+		private static final int VALIDATE = 0, COUNT = 1, FILL = 2;
+
+		private final String[] entries;
+		/**Entries invalid before validation, or null*/
+		private final BitSet rejected;
+		private final NetUser[] users;
+		private final String[] keys;
+		private final ConcurrentHashMap<String, Integer> first;
+		private final int[] validOffsets, invalidOffsets;
+		private NetUser[] valid;
+		private String[] invalid;
+
+		Job(String[] entries, BitSet rejected){
+			this.entries = entries;
+			this.rejected = rejected == null || rejected.isEmpty() ? null : rejected;
+			this.users = new NetUser[entries.length];
+			this.keys = new String[entries.length];
+			// sized for all the entries, so the threads never wait a resize
+			this.first = new ConcurrentHashMap<>( entries.length );
+			int chunks = (entries.length + CHUNK - 1) / CHUNK;
+			this.validOffsets = new int[chunks + 1];
+			this.invalidOffsets = new int[chunks + 1];
+		}
+
+		ValidationReport run(ForkJoinPool pool){
+			int chunks = this.validOffsets.length - 1;
+			if(chunks > 0) {
+				pool.invoke( new Pass( VALIDATE, 0, chunks ) );
+				pool.invoke( new Pass( COUNT, 0, chunks ) );
+			}
+
+			// counts of each chunk to offsets of partitions
+			int v = 0, inv = 0;
+			for(int c = 0; c <= chunks; c++) {
+				int cv = this.validOffsets[c], ci = this.invalidOffsets[c];
+				this.validOffsets[c] = v;
+				this.invalidOffsets[c] = inv;
+				v += cv;
+				inv += ci;
+			}
+			this.valid = new NetUser[v];
+			this.invalid = new String[inv];
+
+			if(chunks > 0)
+				pool.invoke( new Pass( FILL, 0, chunks ) );
+			return new ValidationReport( this.valid, this.invalid, this.entries.length - v - inv );
+		}
+
+		private void validate(int from, int to){
+			for(int i = from; i < to; i++) {
+				String e = this.entries[i];
+				if(e == null || (this.rejected != null && this.rejected.get( i )))
+					continue;
+				int at = NetUser.indexOfAt( e );
+				if(at < 0)
+					continue;
+
+				String key = key( e, at );
+				this.users[i] = new NetUser( e, at );
+				this.keys[i] = key;
+				Integer index = Integer.valueOf( i );
+				Integer old = this.first.putIfAbsent( key, index );
+				if(old != null && old.intValue() > i)
+					this.first.merge( key, index, MIN );
+			}
+		}
+
+		private void count(int chunk, int from, int to){
+			int v = 0, inv = 0;
+			for(int i = from; i < to; i++) {
+				if(this.users[i] == null) {
+					inv++;
+				} else if(this.first.get( this.keys[i] ).intValue() == i) {
+					v++;
+				} else {
+					this.users[i] = DUPLICATE;
+				}
+				this.keys[i] = null;
+			}
+			this.validOffsets[chunk] = v;
+			this.invalidOffsets[chunk] = inv;
+		}
+
+		private void fill(int chunk, int from, int to){
+			int v = this.validOffsets[chunk], inv = this.invalidOffsets[chunk];
+			for(int i = from; i < to; i++) {
+				NetUser u = this.users[i];
+				if(u == null)
+					this.invalid[inv++] = this.entries[i];
+				else if(u != DUPLICATE)
+					this.valid[v++] = u;
+			}
+		}
+
+		/* Splits the chunks in halves until one is left, then runs the pass over it. */
+		private final class Pass extends RecursiveAction
+		{
+			private static final long serialVersionUID = 1L;
+			private final int pass, from, to;
+
+			Pass(int pass, int from, int to){
+				this.pass = pass;
+				this.from = from;
+				this.to = to;
+			}
+
+			@Override
+			protected void compute(){
+				if(this.to - this.from > 1) {
+					int middle = (this.from + this.to) >>> 1;
+					invokeAll( new Pass( this.pass, this.from, middle ), new Pass( this.pass, middle, this.to ) );
+					return;
+				}
+
+				int start = this.from * CHUNK, end = Math.min( start + CHUNK, entries.length );
+				switch( this.pass ) {
+					case VALIDATE:
+						validate( start, end );
+						break;
+					case COUNT:
+						count( this.from, start, end );
+						break;
+					default:
+						fill( this.from, start, end );
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package it.hackcaffebabe.netutil.mail;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * <p>
+ * Circuit breaker of one recipient domain.<br>
+ * After a number of consecutive transient failures the circuit opens and no message is sent to the domain
+ * until the open time is passed. Then the circuit is half open: one message is let through, if it's sent
+ * the circuit closes, otherwise it opens again.
+ * </p>
+ *
+ * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
+ * @version 1.0
+ */
+final class CircuitBreaker
+{
+	private enum State { CLOSED, OPEN, HALF_OPEN }
+
+	private final int failureThreshold;
+	private final long openNanos;
+
+	private State state = State.CLOSED;
+	private int failures;
+	private long openedAt;
+
+	/**
+	 * Instance a closed circuit.
+	 * @param failureThreshold {@link Integer} consecutive failures that open the circuit.
+	 * @param openMillis {@link Long} milliseconds the circuit stays open.
+	 */
+	CircuitBreaker(int failureThreshold, long openMillis){
+		this.failureThreshold = Math.max( 1, failureThreshold );
+		this.openNanos = TimeUnit.MILLISECONDS.toNanos( openMillis );
+	}
+
+//====================================================================================================//
+// METHOD
+//====================================================================================================//
+	/**
+	 * Returns how long a message must wait before it can be sent to the domain.
+	 * If the result is 0 the message can be sent now, and if the circuit was open it's now half open.
+	 * @return {@link Long} milliseconds to wait, 0 if the message can be sent.
+	 */
+	synchronized long acquire(){
+		switch( this.state ) {
+			case CLOSED:
+				return 0L;
+			case OPEN:
+				long wait = this.openedAt + this.openNanos - System.nanoTime();
+				if(wait > 0)
+					return Math.max( 1L, TimeUnit.NANOSECONDS.toMillis( wait ) );
+				this.state = State.HALF_OPEN;
+				return 0L;
+			default:
+				// a trial message is already running
+				return Math.max( 1L, TimeUnit.NANOSECONDS.toMillis( this.openNanos ) );
+		}
+	}
+
+	/**
+	 * Records a message sent to the domain, the circuit closes.
+	 */
+	synchronized void onSuccess(){
+		this.state = State.CLOSED;
+		this.failures = 0;
+	}
+
+	/**
+	 * Records a transient failure of the domain, the circuit opens if the threshold is reached.
+	 */
+	synchronized void onFailure(){
+		this.failures++;
+		if(this.state == State.HALF_OPEN || this.failures >= this.failureThreshold) {
+			this.state = State.OPEN;
+			this.openedAt = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Gives back the trial slot of half open circuit without outcome, like when the message is refused for other domains.
+	 */
+	synchronized void onSkip(){
+		if(this.state == State.HALF_OPEN)
+			this.state = State.OPEN;
+	}
+
+	/**
+	 * Returns true if the circuit is open or half open.
+	 * @return {@link Boolean} true if the messages to the domain are held.
+	 */
+	synchronized boolean isOpen(){
+		return this.state != State.CLOSED;
+	}
+}
@@ -0,0 +1,212 @@
+package it.hackcaffebabe.netutil.mail;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.mail.MessagingException;
+
+
+/**
+ * <p>
+ * Worker pool that sends the messages submitted by {@link MailerManager#sendAsync(SimpleMessage)}.<br>
+ * The messages wait into a bounded queue: when the queue is full the caller is blocked until a slot is free
+ * or until the offer timeout, then the message is refused.<br>
+ * Each worker keeps its own connection of the pool while there are messages to send, and gives it back
+ * after a short idle time. The workers are virtual threads if the JVM supports them.
+ * </p>
+ * The engine reads this optional keys from the mail configuration:
+ * <pre>
+ * mailer.dispatch.workers=4
+ * mailer.dispatch.queueCapacity=1000
+ * mailer.dispatch.offerTimeout=30000
+ * mailer.dispatch.virtualThreads=true
+ * </pre>
+ * The default number of workers is <code>mailer.pool.maxConnections</code>.
+ *
+ * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
+ * @version 1.0
+ */
+final class DispatchEngine
+{
+	/**Milliseconds a worker keeps its connection when the queue is empty*/
+	private static final long KEEP_CONNECTION = 1000L;
+
+	private final MailerManager mailer;
+	private final BlockingQueue<Job> queue;
+	private final long offerTimeout;
+	private final List<Thread> workers = new ArrayList<>();
+	private volatile boolean running = true;
+
+	/**
+	 * Instance and starts the workers.
+	 * @param mailer {@link MailerManager} the manager that owns the connection pool.
+	 * @param properties {@link Properties} the mail configuration.
+	 * @throws IllegalArgumentException if one of dispatch keys is not valid.
+	 */
+	DispatchEngine(MailerManager mailer, Properties properties) throws IllegalArgumentException{
+		this.mailer = mailer;
+
+		int defaultWorkers = MailerConfig.getInt( properties, MailerConfig.POOL_MAX_CONNECTIONS, 4 );
+		int workerCount = MailerConfig.getInt( properties, MailerConfig.DISPATCH_WORKERS, defaultWorkers );
+		int capacity = MailerConfig.getInt( properties, MailerConfig.DISPATCH_QUEUE_CAPACITY, 1000 );
+		if(workerCount < 1 || capacity < 1)
+			throw new IllegalArgumentException( "Dispatch workers and queue capacity must be greater than zero." );
+
+		this.queue = new ArrayBlockingQueue<>( capacity );
+		this.offerTimeout = MailerConfig.getLong( properties, MailerConfig.DISPATCH_OFFER_TIMEOUT, 30000L );
+
+		boolean virtual = !"false".equalsIgnoreCase( properties.getProperty( MailerConfig.DISPATCH_VIRTUAL_THREADS ) );
+		ThreadFactory factory = newThreadFactory( virtual );
+		for(int i = 0; i < workerCount; i++) {
+			Thread t = factory.newThread( new Worker() );
+			this.workers.add( t );
+			t.start();
+		}
+	}
+
+//====================================================================================================//
+// METHOD
+//====================================================================================================//
+	/**
+	 * Queues a message to send, blocking the caller while the queue is full if wait is true.
+	 * @param message {@link SimpleMessage} the message to send.
+	 * @param wait {@link Boolean} true to wait a free slot until the offer timeout, false to refuse the message
+	 *        at once if the queue is full.
+	 * @return {@link CompletableFuture} completed with the {@link SendResult} of message, or completed exceptionally
+	 *         with {@link MessagingException} if the queue stays full or the engine is stopped.
+	 */
+	CompletableFuture<SendResult> submit(SimpleMessage message, boolean wait){
+		Job job = new Job( message );
+		if(!this.running) {
+			job.future.completeExceptionally( new MessagingException( "Dispatcher is shut down." ) );
+			return job.future;
+		}
+
+		try {
+			long timeout = wait ? this.offerTimeout : 0L;
+			if(!this.queue.offer( job, timeout, TimeUnit.MILLISECONDS ))
+				job.future.completeExceptionally( new MessagingException( "Dispatch queue is full after " + timeout + " ms." ) );
+			else if(!this.running && this.queue.remove( job ))
+				// shutdown drained the queue before this offer, no worker will take the job
+				job.future.completeExceptionally( new MessagingException( "Dispatcher is shut down." ) );
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			job.future.completeExceptionally( new MessagingException( "Interrupted while waiting for a free slot.", e ) );
+		}
+		return job.future;
+	}
+
+	/**
+	 * Returns the number of messages waiting a worker.
+	 * @return {@link Integer} the number of queued messages.
+	 */
+	int getQueueDepth(){
+		return this.queue.size();
+	}
+
+	/**
+	 * Stops the workers, the messages still queued are completed exceptionally.
+	 */
+	void shutdown(){
+		this.running = false;
+		for(Thread t: this.workers)
+			t.interrupt();
+
+		List<Job> pending = new ArrayList<>();
+		this.queue.drainTo( pending );
+		for(Job job: pending)
+			job.future.completeExceptionally( new MessagingException( "Dispatcher is shut down." ) );
+	}
+
+	/* Returns a factory of virtual threads if supported and requested, otherwise of daemon threads. */
+	private static ThreadFactory newThreadFactory(boolean virtual){
+		if(virtual) {
+			try {
+				// Thread.ofVirtual().name( "mailer-dispatch-", 0 ).factory(), available since Java 21
+				Class<?> builderType = Class.forName( "java.lang.Thread$Builder" );
+				Method name = builderType.getMethod( "name", String.class, long.class );
+				Method factory = builderType.getMethod( "factory" );
+				Object builder = Thread.class.getMethod( "ofVirtual" ).invoke( null );
+				builder = name.invoke( builder, "mailer-dispatch-", 0L );
+				return (ThreadFactory) factory.invoke( builder );
+			} catch(ReflectiveOperationException | RuntimeException e) {
+				// older JVM: platform threads
+			}
+		}
+
+		final AtomicInteger count = new AtomicInteger();
+		return new ThreadFactory(){
+			@Override
+			public Thread newThread(Runnable r){
+				Thread t = new Thread( r, "mailer-dispatch-" + count.getAndIncrement() );
+				t.setDaemon( true );
+				return t;
+			}
+		};
+	}
+
+//====================================================================================================//
+// INNER CLASS
+//====================================================================================================//
+	/* A queued message with the future of its result. */
+	private static final class Job
+	{
+		final SimpleMessage message;
+		final CompletableFuture<SendResult> future = new CompletableFuture<>();
+
+		Job(SimpleMessage message){
+			this.message = message;
+		}
+	}
+
+	/* Takes the messages from queue and sends them over its own connection. */
+	private final class Worker implements Runnable
+	{
+		private PooledSender sender;
+
+		@Override
+		public void run(){
+			try {
+				while( running ) {
+					Job job = this.sender != null && this.sender.isHolding()
+							? queue.poll( KEEP_CONNECTION, TimeUnit.MILLISECONDS ) : queue.take();
+					if(job == null) {
+						this.sender.release();
+						continue;
+					}
+					try {
+						job.future.complete( this.send( job.message ) );
+					} catch(RuntimeException e) {
+						job.future.completeExceptionally( e );
+					}
+				}
+			} catch(InterruptedException e) {
+				// shutdown
+			} finally {
+				if(this.sender != null)
+					this.sender.release();
+			}
+		}
+
+		/* Sends over the pool of current login, the connection held is given back if the login changed. */
+		private SendResult send(SimpleMessage message){
+			TransportPool pool = mailer.getPool();
+			if(pool == null)
+				return new SendResult( message, null, new MessagingException( "You are not logged in. Use Mailer.login( String, String ) first." ) );
+
+			if(this.sender == null || this.sender.getPool() != pool) {
+				if(this.sender != null)
+					this.sender.release();
+				this.sender = new PooledSender( pool, mailer.getRateLimiter() );
+			}
+			return this.sender.send( message );
+		}
+	}
+}
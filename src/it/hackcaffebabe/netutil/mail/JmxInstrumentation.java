@@ -0,0 +1,379 @@
+package it.hackcaffebabe.netutil.mail;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.mail.MessagingException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+
+/**
+ * <p>
+ * {@link MailerInstrumentation} that exports the metrics of a {@link MailerManager} as MXBeans of the platform
+ * MBean server, so they can be read with JConsole or any JMX agent:
+ * <pre>
+ * JmxInstrumentation jmx = new JmxInstrumentation( "newsletter" );
+ * jmx.register( mailer );
+ * </pre>
+ * </p>
+ * The MXBeans are:
+ * <pre>
+ * it.hackcaffebabe.netutil:type=Mailer,name=newsletter               counters, queue depths and pool state
+ * it.hackcaffebabe.netutil:type=Mailer,name=newsletter,phase=CONNECT one for each {@link MailerInstrumentation.Phase}
+ * </pre>
+ * The latencies of phases are kept into a {@link LatencyHistogram} each, since the instrumentation is created.
+ *
+ * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
+ * @version 1.0
+ */
+public class JmxInstrumentation implements MailerInstrumentation
+{
+	/**Domain of the MXBean names*/
+	public static final String DOMAIN = "it.hackcaffebabe.netutil";
+
+	private final String name;
+	private final LatencyHistogram[] histograms = new LatencyHistogram[Phase.values().length];
+	private final LongAdder[] phaseFailures = new LongAdder[Phase.values().length];
+	private final LongAdder sent = new LongAdder(), failed = new LongAdder(), retried = new LongAdder(),
+			recipients = new LongAdder(), bytes = new LongAdder();
+
+	private volatile MailerManager mailer;
+	private volatile RetryScheduler retry;
+	private final List<ObjectName> registered = new ArrayList<>();
+
+	/**
+	 * Instance the instrumentation with the name used by its MXBeans.
+	 * @param name {@link String} the name of mailer, like "default".
+	 * @throws IllegalArgumentException if name is null or empty.
+	 */
+	public JmxInstrumentation(String name) throws IllegalArgumentException{
+		if(name == null || name.isEmpty())
+			throw new IllegalArgumentException( "Name can not be null or empty." );
+
+		this.name = name;
+		for(int i = 0; i < this.histograms.length; i++) {
+			this.histograms[i] = new LatencyHistogram();
+			this.phaseFailures[i] = new LongAdder();
+		}
+	}
+
+//====================================================================================================//
+// METHOD
+//====================================================================================================//
+	/**
+	 * Sets this instrumentation to the mailer given and registers the MXBeans.
+	 * @param mailer {@link MailerManager} the mailer to instrument.
+	 * @throws IllegalArgumentException if mailer is null.
+	 * @throws IllegalStateException if the MXBeans are already registered.
+	 * @throws JMException if the MXBeans can not be registered, like when the name is already used.
+	 */
+	public synchronized void register(MailerManager mailer) throws IllegalArgumentException, IllegalStateException, JMException{
+		if(mailer == null)
+			throw new IllegalArgumentException( "Mailer can not be null." );
+		if(!this.registered.isEmpty())
+			throw new IllegalStateException( "Instrumentation is already registered." );
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		String base = DOMAIN + ":type=Mailer,name=" + ObjectName.quote( this.name );
+		try {
+			this.register( server, new ObjectName( base ), new StandardMBean( new MailerBean(), MailerMXBean.class, true ) );
+			for(Phase p: Phase.values())
+				this.register( server, new ObjectName( base + ",phase=" + p ), new StandardMBean( new PhaseBean( p ), PhaseMXBean.class, true ) );
+		} catch(JMException e) {
+			this.unregister();
+			throw e;
+		}
+
+		this.mailer = mailer;
+		mailer.setInstrumentation( this );
+	}
+
+	/**
+	 * Unregisters the MXBeans and removes this instrumentation from its mailer.
+	 */
+	public synchronized void unregister(){
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for(ObjectName n: this.registered) {
+			try {
+				server.unregisterMBean( n );
+			} catch(JMException e) {
+				// already unregistered by someone else
+			}
+		}
+		this.registered.clear();
+
+		MailerManager m = this.mailer;
+		if(m != null && m.getInstrumentation() == this)
+			m.setInstrumentation( null );
+		this.mailer = null;
+	}
+
+	private void register(MBeanServer server, ObjectName n, Object bean) throws JMException{
+		server.registerMBean( bean, n );
+		this.registered.add( n );
+	}
+
+//====================================================================================================//
+// GETTER
+//====================================================================================================//
+	/**
+	 * Returns the histogram of latencies of phase given.
+	 * @param phase {@link MailerInstrumentation.Phase} the phase.
+	 * @return {@link LatencyHistogram} the latencies of phase.
+	 */
+	public LatencyHistogram getHistogram(Phase phase){
+		return this.histograms[phase.ordinal()];
+	}
+
+	/**
+	 * Returns the email accepted by the server.
+	 * @return {@link Long} the email sent.
+	 */
+	public long getSentCount(){
+		return this.sent.sum();
+	}
+
+	/**
+	 * Returns the email not sent.
+	 * @return {@link Long} the email failed.
+	 */
+	public long getFailedCount(){
+		return this.failed.sum();
+	}
+
+	/**
+	 * Returns the email scheduled again by a {@link RetryScheduler} of the mailer.
+	 * @return {@link Long} the retries.
+	 */
+	public long getRetriedCount(){
+		return this.retried.sum();
+	}
+
+	/**
+	 * Returns the bytes of content of the email sent.
+	 * @return {@link Long} the bytes sent.
+	 */
+	public long getByteCount(){
+		return this.bytes.sum();
+	}
+
+//====================================================================================================//
+// SETTER
+//====================================================================================================//
+	/**
+	 * Sets the retry scheduler whose pending email are exported as a queue depth.
+	 * @param retry {@link RetryScheduler} the scheduler of the mailer, null for none.
+	 */
+	public void setRetryScheduler(RetryScheduler retry){
+		this.retry = retry;
+	}
+
+//====================================================================================================//
+// OVERRIDE
+//====================================================================================================//
+	@Override
+	public void phaseCompleted(Phase phase, long nanos, boolean success){
+		this.histograms[phase.ordinal()].record( nanos );
+		if(!success)
+			this.phaseFailures[phase.ordinal()].increment();
+	}
+
+	@Override
+	public void messageSent(int recipients, long bytes){
+		this.sent.increment();
+		this.recipients.add( recipients );
+		this.bytes.add( bytes );
+	}
+
+	@Override
+	public void messageFailed(MessagingException e){
+		this.failed.increment();
+	}
+
+	@Override
+	public void messageRetried(int attempts){
+		this.retried.increment();
+	}
+
+//====================================================================================================//
+// INNER CLASS
+//====================================================================================================//
+	/**
+	 * Counters, queue depths and connection pool of a mailer. The pool values are 0 if the mailer is not logged in.
+	 */
+	public interface MailerMXBean
+	{
+		long getSentCount();
+		long getFailedCount();
+		long getRetriedCount();
+		long getRecipientCount();
+		long getByteCount();
+		int getQueueDepth();
+		int getRetryPendingCount();
+		int getPoolMaxConnections();
+		int getPoolLeased();
+		int getPoolIdle();
+		int getPoolWaiting();
+		long getPoolOpened();
+		long getPoolClosed();
+		long getPoolLeaseTimeouts();
+	}
+
+	/**
+	 * Latencies of a phase in milliseconds, and how many times it failed.
+	 */
+	public interface PhaseMXBean
+	{
+		long getCount();
+		long getFailureCount();
+		double getMeanMillis();
+		double getP50Millis();
+		double getP90Millis();
+		double getP99Millis();
+		double getP999Millis();
+		double getMaxMillis();
+	}
+
+	/* Reads the counters of instrumentation and the gauges of mailer. */
+	private final class MailerBean implements MailerMXBean
+	{
+		@Override
+		public long getSentCount(){
+			return sent.sum();
+		}
+
+		@Override
+		public long getFailedCount(){
+			return failed.sum();
+		}
+
+		@Override
+		public long getRetriedCount(){
+			return retried.sum();
+		}
+
+		@Override
+		public long getRecipientCount(){
+			return recipients.sum();
+		}
+
+		@Override
+		public long getByteCount(){
+			return bytes.sum();
+		}
+
+		@Override
+		public int getQueueDepth(){
+			MailerManager m = mailer;
+			return m == null ? 0 : m.getQueueDepth();
+		}
+
+		@Override
+		public int getRetryPendingCount(){
+			RetryScheduler r = retry;
+			return r == null ? 0 : r.getPendingCount();
+		}
+
+		@Override
+		public int getPoolMaxConnections(){
+			PoolStats s = this.stats();
+			return s == null ? 0 : s.getMaxConnections();
+		}
+
+		@Override
+		public int getPoolLeased(){
+			PoolStats s = this.stats();
+			return s == null ? 0 : s.getLeased();
+		}
+
+		@Override
+		public int getPoolIdle(){
+			PoolStats s = this.stats();
+			return s == null ? 0 : s.getIdle();
+		}
+
+		@Override
+		public int getPoolWaiting(){
+			PoolStats s = this.stats();
+			return s == null ? 0 : s.getWaiting();
+		}
+
+		@Override
+		public long getPoolOpened(){
+			PoolStats s = this.stats();
+			return s == null ? 0 : s.getOpened();
+		}
+
+		@Override
+		public long getPoolClosed(){
+			PoolStats s = this.stats();
+			return s == null ? 0 : s.getClosed();
+		}
+
+		@Override
+		public long getPoolLeaseTimeouts(){
+			PoolStats s = this.stats();
+			return s == null ? 0 : s.getLeaseTimeouts();
+		}
+
+		private PoolStats stats(){
+			MailerManager m = mailer;
+			return m == null ? null : m.getPoolStats();
+		}
+	}
+
+	/* Reads the histogram of a phase. */
+	private final class PhaseBean implements PhaseMXBean
+	{
+		private final Phase phase;
+
+		PhaseBean(Phase phase){
+			this.phase = phase;
+		}
+
+		@Override
+		public long getCount(){
+			return getHistogram( this.phase ).getCount();
+		}
+
+		@Override
+		public long getFailureCount(){
+			return phaseFailures[this.phase.ordinal()].sum();
+		}
+
+		@Override
+		public double getMeanMillis(){
+			return getHistogram( this.phase ).getMean( TimeUnit.MILLISECONDS );
+		}
+
+		@Override
+		public double getP50Millis(){
+			return getHistogram( this.phase ).getPercentile( 50, TimeUnit.MILLISECONDS );
+		}
+
+		@Override
+		public double getP90Millis(){
+			return getHistogram( this.phase ).getPercentile( 90, TimeUnit.MILLISECONDS );
+		}
+
+		@Override
+		public double getP99Millis(){
+			return getHistogram( this.phase ).getPercentile( 99, TimeUnit.MILLISECONDS );
+		}
+
+		@Override
+		public double getP999Millis(){
+			return getHistogram( this.phase ).getPercentile( 99.9, TimeUnit.MILLISECONDS );
+		}
+
+		@Override
+		public double getMaxMillis(){
+			return getHistogram( this.phase ).getMax( TimeUnit.MILLISECONDS );
+		}
+	}
+}
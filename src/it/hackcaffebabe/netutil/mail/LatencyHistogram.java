@@ -0,0 +1,132 @@
+package it.hackcaffebabe.netutil.mail;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * <p>
+ * Histogram of durations in nanoseconds, with log linear buckets like HdrHistogram.<br>
+ * Every power of two is split in 32 buckets, so a percentile is at most about 3% greater than the real value,
+ * from one nanosecond up to the longest duration. The buckets are fixed, so {@link #record(long)} doesn't
+ * allocate and doesn't lock: it can be called by many threads at the same time.
+ * </p>
+ * The percentiles read while other threads record are not an exact snapshot, but every recorded value is counted.
+ *
+ * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
+ * @version 1.0
+ */
+public final class LatencyHistogram
+{
+	/**Bits of precision of every bucket: 2^5 sub buckets for each power of two*/
+	private static final int SUB_BITS = 5;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	/**Buckets needed for all the positive long values*/
+	private static final int BUCKETS = index( Long.MAX_VALUE ) + 1;
+
+	private final AtomicLongArray counts = new AtomicLongArray( BUCKETS );
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+//====================================================================================================//
+// METHOD
+//====================================================================================================//
+	/**
+	 * Records a duration, the negative ones as zero.
+	 * @param nanos {@link Long} the duration in nanoseconds.
+	 */
+	public void record(long nanos){
+		long v = Math.max( 0L, nanos );
+		this.counts.incrementAndGet( index( v ) );
+		this.sum.add( v );
+		long m;
+		while( v > (m = this.max.get()) && !this.max.compareAndSet( m, v ) ) {}
+	}
+
+	/* Returns the bucket of value: the values below 2 * SUB_COUNT have one bucket each. */
+	private static int index(long v){
+		if(v < 2 * SUB_COUNT)
+			return (int) v;
+		int shift = 63 - Long.numberOfLeadingZeros( v ) - SUB_BITS;
+		return SUB_COUNT * shift + (int) (v >>> shift);
+	}
+
+	/* Returns the greatest value of bucket. */
+	private static long upperBound(int index){
+		if(index < 2 * SUB_COUNT)
+			return index;
+		int shift = index / SUB_COUNT - 1;
+		long sub = index % SUB_COUNT + SUB_COUNT;
+		return ((sub + 1) << shift) - 1;
+	}
+
+//====================================================================================================//
+// GETTER
+//====================================================================================================//
+	/**
+	 * Returns the number of durations recorded.
+	 * @return {@link Long} the count.
+	 */
+	public long getCount(){
+		long count = 0;
+		for(int i = 0; i < BUCKETS; i++)
+			count += this.counts.get( i );
+		return count;
+	}
+
+	/**
+	 * Returns the mean of durations recorded.
+	 * @param unit {@link TimeUnit} the unit of result.
+	 * @return {@link Double} the mean, 0 if nothing is recorded.
+	 */
+	public double getMean(TimeUnit unit){
+		long count = this.getCount();
+		return count == 0 ? 0 : (double) this.sum.sum() / count / unit.toNanos( 1 );
+	}
+
+	/**
+	 * Returns the longest duration recorded.
+	 * @param unit {@link TimeUnit} the unit of result.
+	 * @return {@link Double} the maximum, 0 if nothing is recorded.
+	 */
+	public double getMax(TimeUnit unit){
+		return (double) this.max.get() / unit.toNanos( 1 );
+	}
+
+	/**
+	 * Returns the duration that is greater or equal than the percentage given of durations recorded.
+	 * @param percentile {@link Double} from 0 to 100, like 99.9.
+	 * @param unit {@link TimeUnit} the unit of result.
+	 * @return {@link Double} the percentile, 0 if nothing is recorded.
+	 * @throws IllegalArgumentException if percentile is not between 0 and 100.
+	 */
+	public double getPercentile(double percentile, TimeUnit unit) throws IllegalArgumentException{
+		if(percentile < 0 || percentile > 100)
+			throw new IllegalArgumentException( "Percentile must be between 0 and 100." );
+
+		long[] snapshot = new long[BUCKETS];
+		long count = 0;
+		for(int i = 0; i < BUCKETS; i++)
+			count += snapshot[i] = this.counts.get( i );
+		if(count == 0)
+			return 0;
+
+		long rank = Math.max( 1L, (long) Math.ceil( percentile / 100 * count ) );
+		long seen = 0;
+		int i = 0;
+		while( (seen += snapshot[i]) < rank )
+			i++;
+		return (double) Math.min( upperBound( i ), this.max.get() ) / unit.toNanos( 1 );
+	}
+
+//====================================================================================================//
+// OVERRIDE
+//====================================================================================================//
+	@Override
+	public String toString(){
+		return "count=" + this.getCount() + " p50=" + this.getPercentile( 50, TimeUnit.MICROSECONDS ) + "us p99="
+				+ this.getPercentile( 99, TimeUnit.MICROSECONDS ) + "us max=" + this.getMax( TimeUnit.MICROSECONDS ) + "us";
+	}
+}
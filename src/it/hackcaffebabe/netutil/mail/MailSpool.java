@@ -0,0 +1,446 @@
+package it.hackcaffebabe.netutil.mail;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+
+/**
+ * <p>
+ * Durable queue of outbound messages stored as RFC 822 bytes into an append-only journal.<br>
+ * The journal is split in segment files named <code>spool-&lt;first id&gt;.log</code>, each one is a sequence of records:
+ * <pre>
+ * type (int) | id (long) | length (int) | payload (length bytes) | CRC32 of previous fields (int)
+ * </pre>
+ * A ENQUEUE record holds a message, a ACK record marks that message as sent.<br>
+ * {@link #append(byte[])} returns only when the record is on disk, but the writers that arrive while a
+ * fsync is running share the next one (group commit), so the cost of fsync is paid once for many messages.
+ * ACK records are not forced: after a crash a message could be sent again, never lost.
+ * </p>
+ * <p>
+ * On open the segments are read again and the messages without ACK are returned by {@link #getPending()}.
+ * A torn record at the end of a segment is truncated.<br>
+ * Segments are reclaimed from the oldest: a segment without pending messages is deleted, and a segment with
+ * few pending messages (or too many segments on disk) is compacted moving its pending records into the active segment.
+ * </p>
+ *
+ * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
+ * @version 1.0
+ */
+final class MailSpool implements Closeable
+{
+	private static final int ENQUEUE = 1, ACK = 2;
+	/**Bytes of type, id and length*/
+	private static final int HEADER = 4 + 8 + 4;
+	/**Bytes of CRC32*/
+	private static final int TRAILER = 4;
+	private static final String PREFIX = "spool-", SUFFIX = ".log";
+
+	private final File directory;
+	private final long segmentSize;
+	private final int maxSegments;
+
+	/**All the segments by first id, the last one is the active. Guarded by this*/
+	private final TreeMap<Long, Segment> segments = new TreeMap<>();
+	/**Pending messages by id in enqueue order. Guarded by this*/
+	private final Map<Long, Record> live = new LinkedHashMap<>();
+	private Segment active;
+	private long nextId = 1;
+	private boolean closed;
+
+	/**Group commit state: records written, records on disk and if a thread is running fsync. Guarded by this*/
+	private long written, synced;
+	private boolean syncing;
+
+	/**
+	 * Opens the spool into the directory given, reading the segments that are already there.
+	 * @param directory {@link File} the spool directory, created if missing.
+	 * @param segmentSize {@link Long} bytes after that a new segment is started.
+	 * @param maxSegments {@link Integer} number of segments after that the oldest is compacted.
+	 * @throws IOException if the directory or segments can not be read or written.
+	 */
+	MailSpool(File directory, long segmentSize, int maxSegments) throws IOException{
+		if(!directory.isDirectory() && !directory.mkdirs())
+			throw new FileNotFoundException( "Spool directory can not be created: " + directory );
+
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.maxSegments = Math.max( 2, maxSegments );
+		synchronized( this ) {
+			this.recover();
+			this.rotate();
+		}
+	}
+
+//====================================================================================================//
+// METHOD
+//====================================================================================================//
+	/**
+	 * Appends a message to the spool and waits that it's on disk.
+	 * @param payload {@link Byte} array of RFC 822 message.
+	 * @return {@link Long} the id of message to use with {@link #ack(long)}.
+	 * @throws IOException if the record can not be written or forced on disk.
+	 */
+	long append(byte[] payload) throws IOException{
+		long id, seq;
+		synchronized( this ) {
+			this.ensureOpen();
+			if(this.active.size > 0 && this.active.size + HEADER + payload.length + TRAILER > this.segmentSize)
+				this.rotate();
+
+			id = this.nextId++;
+			this.live.put( id, this.write( ENQUEUE, id, payload ) );
+			seq = ++this.written;
+		}
+		this.awaitDurable( seq );
+		return id;
+	}
+
+	/**
+	 * Marks a message as sent, so it will not be returned again by {@link #getPending()}.
+	 * @param id {@link Long} the id returned by {@link #append(byte[])}.
+	 * @throws IOException if the record can not be written.
+	 */
+	synchronized void ack(long id) throws IOException{
+		this.ensureOpen();
+		Record r = this.live.remove( id );
+		if(r == null)
+			return;
+
+		this.write( ACK, id, new byte[0] );
+		r.segment.live--;
+		this.reclaim();
+	}
+
+	/**
+	 * Returns the ids of messages without ACK, in enqueue order.
+	 * @return {@link List} of message ids.
+	 */
+	synchronized List<Long> getPending(){
+		return new ArrayList<>( this.live.keySet() );
+	}
+
+	/**
+	 * Reads a pending message.
+	 * @param id {@link Long} the id of message.
+	 * @return {@link Byte} array of RFC 822 message, or null if the message is not pending.
+	 * @throws IOException if the segment can not be read.
+	 */
+	synchronized byte[] read(long id) throws IOException{
+		this.ensureOpen();
+		Record r = this.live.get( id );
+		if(r == null)
+			return null;
+
+		ByteBuffer b = ByteBuffer.allocate( r.length );
+		readFully( r.segment.channel, b, r.position + HEADER );
+		return b.array();
+	}
+
+	@Override
+	public synchronized void close() throws IOException{
+		if(this.closed)
+			return;
+
+		this.waitSync();
+		this.closed = true;
+		IOException failure = null;
+		for(Segment s: this.segments.values()) {
+			try {
+				if(s == this.active) {
+					s.channel.force( false );
+					this.synced = this.written;
+				}
+				s.channel.close();
+			} catch(IOException e) {
+				failure = e;
+			}
+		}
+		this.notifyAll();
+		if(failure != null)
+			throw failure;
+	}
+
+	/* Forces on disk the records written until now, sharing the fsync with the other writers. */
+	private void awaitDurable(long seq) throws IOException{
+		FileChannel channel;
+		long target;
+		synchronized( this ) {
+			while( true ) {
+				if(this.synced >= seq)
+					return;
+				this.ensureOpen();
+				if(!this.syncing)
+					break;
+				this.waitQuietly();
+			}
+			this.syncing = true;
+			channel = this.active.channel;
+			target = this.written;
+		}
+
+		IOException failure = null;
+		try {
+			channel.force( false );
+		} catch(IOException e) {
+			failure = e;
+		}
+
+		synchronized( this ) {
+			this.syncing = false;
+			if(failure == null && target > this.synced)
+				this.synced = target;
+			this.notifyAll();
+		}
+		if(failure != null)
+			throw failure;
+	}
+
+	/* Writes a record at the end of active segment and returns its position. */
+	private Record write(int type, long id, byte[] payload) throws IOException{
+		ByteBuffer header = ByteBuffer.allocate( HEADER );
+		header.putInt( type ).putLong( id ).putInt( payload.length ).flip();
+
+		CRC32 crc = new CRC32();
+		crc.update( header.array(), 0, HEADER );
+		crc.update( payload, 0, payload.length );
+		ByteBuffer trailer = ByteBuffer.allocate( TRAILER );
+		trailer.putInt( (int) crc.getValue() ).flip();
+
+		ByteBuffer[] record = { header, ByteBuffer.wrap( payload ), trailer };
+		long position = this.active.size;
+		long length = HEADER + payload.length + TRAILER;
+		long done = 0;
+		while( done < length )
+			done += this.active.channel.write( record );
+
+		this.active.size += length;
+		if(type == ENQUEUE) {
+			this.active.records++;
+			this.active.live++;
+		}
+		return new Record( this.active, position, payload.length );
+	}
+
+	/* Seals the active segment and starts a new one. */
+	private void rotate() throws IOException{
+		if(this.active != null) {
+			this.waitSync();
+			this.active.channel.force( false );
+			this.synced = this.written;
+		}
+
+		File f = new File( this.directory, String.format( "%s%016x%s", PREFIX, this.nextId, SUFFIX ) );
+		Segment s = new Segment( this.nextId, f );
+		this.segments.put( s.firstId, s );
+		this.active = s;
+		this.reclaim();
+	}
+
+	/* Deletes or compacts the oldest sealed segments, stopping at the first that must be kept. */
+	private void reclaim() throws IOException{
+		while( this.segments.size() > 1 ) {
+			Segment oldest = this.segments.firstEntry().getValue();
+			if(oldest == this.active)
+				return;
+
+			// the ACK in a segment refer only to the same or older segments, so only the oldest can go
+			if(oldest.live > 0) {
+				if(oldest.live * 2 > oldest.records && this.segments.size() <= this.maxSegments)
+					return;
+				this.moveLive( oldest );
+			}
+			this.delete( oldest );
+		}
+	}
+
+	/* Copies the pending records of segment into the active segment. */
+	private void moveLive(Segment segment) throws IOException{
+		this.waitSync();
+		for(Map.Entry<Long, Record> e: this.live.entrySet()) {
+			Record r = e.getValue();
+			if(r.segment != segment)
+				continue;
+
+			ByteBuffer b = ByteBuffer.allocate( r.length );
+			readFully( segment.channel, b, r.position + HEADER );
+			e.setValue( this.write( ENQUEUE, e.getKey(), b.array() ) );
+		}
+		this.active.channel.force( false );
+		this.synced = this.written;
+		segment.live = 0;
+	}
+
+	private void delete(Segment segment) throws IOException{
+		this.segments.remove( segment.firstId );
+		segment.channel.close();
+		if(!segment.file.delete())
+			throw new IOException( "Spool segment can not be deleted: " + segment.file );
+	}
+
+	/* Reads all the segments on disk and rebuilds the pending messages. */
+	private void recover() throws IOException{
+		File[] files = this.directory.listFiles();
+		if(files == null)
+			throw new IOException( "Spool directory can not be read: " + this.directory );
+
+		Arrays.sort( files );
+		Set<Long> acked = new HashSet<>();
+		for(File f: files) {
+			String name = f.getName();
+			if(!name.startsWith( PREFIX ) || !name.endsWith( SUFFIX ))
+				continue;
+
+			long firstId = Long.parseLong( name.substring( PREFIX.length(), name.length() - SUFFIX.length() ), 16 );
+			Segment s = new Segment( firstId, f );
+			this.segments.put( firstId, s );
+			this.scan( s, acked );
+			// a segment can hold only records moved by a compaction, with ids lower than its name: the next
+			// segment must be named after it anyway, or its ACK records would be read before their ENQUEUE
+			this.nextId = Math.max( this.nextId, firstId + 1 );
+		}
+
+		// empty segments and segments without pending messages at the head are deleted now
+		boolean head = true;
+		Iterator<Segment> i = this.segments.values().iterator();
+		while( i.hasNext() ) {
+			Segment s = i.next();
+			head &= s.live == 0;
+			if(head || s.size == 0) {
+				i.remove();
+				s.channel.close();
+				s.file.delete();
+			}
+		}
+	}
+
+	/*
+	 * Reads the records of a segment, truncating the segment at the first torn record. The ids acked in the segments
+	 * read before are never pending again, also if a spool written by older versions has the ACK in a segment named
+	 * before the one of ENQUEUE.
+	 */
+	private void scan(Segment s, Set<Long> acked) throws IOException{
+		ByteBuffer header = ByteBuffer.allocate( HEADER );
+		long position = 0, fileSize = s.channel.size();
+		while( position + HEADER + TRAILER <= fileSize ) {
+			header.clear();
+			readFully( s.channel, header, position );
+			header.flip();
+			int type = header.getInt();
+			long id = header.getLong();
+			int length = header.getInt();
+			if((type != ENQUEUE && type != ACK) || length < 0 || position + HEADER + length + TRAILER > fileSize)
+				break;
+
+			ByteBuffer body = ByteBuffer.allocate( length + TRAILER );
+			readFully( s.channel, body, position + HEADER );
+			CRC32 crc = new CRC32();
+			crc.update( header.array(), 0, HEADER );
+			crc.update( body.array(), 0, length );
+			if((int) crc.getValue() != body.getInt( length ))
+				break;
+
+			if(type == ENQUEUE) {
+				s.records++;
+				if(acked.contains( id )) {
+					this.nextId = Math.max( this.nextId, id + 1 );
+					position += HEADER + length + TRAILER;
+					continue;
+				}
+				s.live++;
+				Record old = this.live.put( id, new Record( s, position, length ) );
+				if(old != null) // moved by a compaction interrupted before the delete
+					old.segment.live--;
+			} else {
+				acked.add( id );
+				Record r = this.live.remove( id );
+				if(r != null)
+					r.segment.live--;
+			}
+			this.nextId = Math.max( this.nextId, id + 1 );
+			position += HEADER + length + TRAILER;
+		}
+
+		if(position < fileSize)
+			s.channel.truncate( position );
+		s.size = position;
+		s.channel.position( position );
+	}
+
+	private void waitSync() throws InterruptedIOException{
+		while( this.syncing )
+			this.waitQuietly();
+	}
+
+	private void waitQuietly() throws InterruptedIOException{
+		try {
+			this.wait();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException( "Interrupted while waiting spool fsync." );
+		}
+	}
+
+	private void ensureOpen() throws IOException{
+		if(this.closed)
+			throw new IOException( "Spool is closed." );
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer b, long position) throws IOException{
+		while( b.hasRemaining() ) {
+			int n = channel.read( b, position + b.position() );
+			if(n < 0)
+				throw new EOFException( "Spool segment is truncated." );
+		}
+	}
+
+//====================================================================================================//
+// INNER CLASS
+//====================================================================================================//
+	/* A segment file with its counters. */
+	private static final class Segment
+	{
+		final long firstId;
+		final File file;
+		final FileChannel channel;
+		long size;
+		/**ENQUEUE records and pending messages in this segment*/
+		int records, live;
+
+		Segment(long firstId, File file) throws IOException{
+			this.firstId = firstId;
+			this.file = file;
+			this.channel = FileChannel.open( file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE );
+		}
+	}
+
+	/* Where a pending message is stored. */
+	private static final class Record
+	{
+		final Segment segment;
+		final long position;
+		final int length;
+
+		Record(Segment segment, long position, int length){
+			this.segment = segment;
+			this.position = position;
+			this.length = length;
+		}
+	}
+}
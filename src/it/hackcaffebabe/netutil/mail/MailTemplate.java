@@ -0,0 +1,220 @@
+package it.hackcaffebabe.netutil.mail;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+
+
+/**
+ * <p>
+ * Subject and body of a email with placeholders, compiled once and rendered for each recipient.<br>
+ * The placeholders are written like <code>${name}</code>, and <code>$$</code> writes a single <code>$</code>.
+ * The names <code>email</code>, <code>user</code> and <code>domain</code> are the parts of recipient
+ * {@link NetUser}, the other names are asked to the {@link Values} given.<br>
+ * The text is split once into a list of segments; rendering appends the segments into a buffer reused by the
+ * same thread, so a recipient costs only the final subject and body strings.
+ * </p>
+ * Use it like this with {@link MailerManager#sendAll(MailTemplate, NetUser, java.util.Collection, MailTemplate.Values)}:
+ * <pre>
+ * MailTemplate t = MailTemplate.compile( "News for ${user}", "Hello ${name},\nyour account is ${email}." );
+ * SendReport r = mailer.sendAll( t, sender, recipients, values );
+ * </pre>
+ *
+ * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
+ * @version 1.0
+ */
+public final class MailTemplate
+{
+	private static final int LITERAL = 0, EMAIL = 1, USER = 2, DOMAIN = 3, VALUE = 4;
+	private static final Values NO_VALUES = new Values(){
+		@Override
+		public String get(NetUser recipient, String name){
+			return null;
+		}
+	};
+	/**Buffer reused by the renders of the same thread*/
+	private static final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<StringBuilder>(){
+		@Override
+		protected StringBuilder initialValue(){
+			return new StringBuilder( 1024 );
+		}
+	};
+
+	private final Segment[] subject, body;
+
+	private MailTemplate(Segment[] subject, Segment[] body){
+		this.subject = subject;
+		this.body = body;
+	}
+
+//====================================================================================================//
+// METHOD
+//====================================================================================================//
+	/**
+	 * Compiles the subject and body given.
+	 * @param subject {@link String} the subject with placeholders.
+	 * @param body {@link String} the text body with placeholders.
+	 * @return {@link MailTemplate} the compiled template.
+	 * @throws IllegalArgumentException if subject or body are null or have a placeholder not closed.
+	 */
+	public static MailTemplate compile(String subject, String body) throws IllegalArgumentException{
+		if(subject == null || body == null)
+			throw new IllegalArgumentException( "Subject and body of template can not be null." );
+
+		return new MailTemplate( parse( subject ), parse( body ) );
+	}
+
+	/**
+	 * Returns the subject rendered for the recipient given.
+	 * @param recipient {@link NetUser} the recipient.
+	 * @param values {@link Values} the values of custom placeholders, can be null.
+	 * @return {@link String} the rendered subject.
+	 */
+	public String renderSubject(NetUser recipient, Values values){
+		return render( this.subject, recipient, values );
+	}
+
+	/**
+	 * Returns the body rendered for the recipient given.
+	 * @param recipient {@link NetUser} the recipient.
+	 * @param values {@link Values} the values of custom placeholders, can be null.
+	 * @return {@link String} the rendered body.
+	 */
+	public String renderBody(NetUser recipient, Values values){
+		return render( this.body, recipient, values );
+	}
+
+	/**
+	 * Returns a new email for the recipient given, ready to be sent.
+	 * @param session {@link Session} current opened session.
+	 * @param sender {@link NetUser} the sender.
+	 * @param recipient {@link NetUser} the recipient.
+	 * @param values {@link Values} the values of custom placeholders, can be null.
+	 * @return {@link SimpleMessage} the rendered email.
+	 * @throws IllegalArgumentException if session, sender or recipient are null.
+	 * @throws MessagingException if the email can not be built.
+	 */
+	public SimpleMessage newMessage(Session session, NetUser sender, NetUser recipient, Values values) throws IllegalArgumentException, MessagingException{
+		if(session == null)
+			throw new IllegalArgumentException( "Session can not be null." );
+
+		SimpleMessage m = new SimpleMessage( session );
+		m.setSender( sender );
+		m.setRecipient( recipient );
+		m.setSubject( this.renderSubject( recipient, values ), "UTF-8" );
+		m.setBodyMessage( this.renderBody( recipient, values ), null );
+		return m;
+	}
+
+	private static String render(Segment[] segments, NetUser recipient, Values values){
+		if(recipient == null)
+			throw new IllegalArgumentException( "Recipient can not be null." );
+
+		Values v = values == null ? NO_VALUES : values;
+		StringBuilder sb = BUFFER.get();
+		sb.setLength( 0 );
+		for(Segment s: segments) {
+			switch( s.kind ) {
+				case LITERAL:
+					sb.append( s.text );
+					break;
+				case EMAIL:
+					sb.append( recipient.getEmail() );
+					break;
+				case USER:
+					sb.append( recipient.getUser() );
+					break;
+				case DOMAIN:
+					sb.append( recipient.getDomain() );
+					break;
+				default:
+					String value = v.get( recipient, s.text );
+					if(value != null)
+						sb.append( value );
+			}
+		}
+		String result = sb.toString();
+		if(sb.capacity() > 64 * 1024)
+			BUFFER.remove(); // don't keep a huge buffer forever
+		return result;
+	}
+
+	/* Splits the text into literal and placeholder segments. */
+	private static Segment[] parse(String text) throws IllegalArgumentException{
+		List<Segment> segments = new ArrayList<>();
+		StringBuilder literal = new StringBuilder();
+		int i = 0;
+		while( i < text.length() ) {
+			char c = text.charAt( i );
+			if(c != '$' || i + 1 >= text.length()) {
+				literal.append( c );
+				i++;
+			} else if(text.charAt( i + 1 ) == '$') {
+				literal.append( '$' );
+				i += 2;
+			} else if(text.charAt( i + 1 ) == '{') {
+				int end = text.indexOf( '}', i + 2 );
+				if(end < 0)
+					throw new IllegalArgumentException( "Placeholder not closed at " + i + ": " + text );
+
+				if(literal.length() > 0) {
+					segments.add( new Segment( LITERAL, literal.toString() ) );
+					literal.setLength( 0 );
+				}
+				String name = text.substring( i + 2, end ).trim();
+				segments.add( new Segment( kindOf( name ), name ) );
+				i = end + 1;
+			} else {
+				literal.append( c );
+				i++;
+			}
+		}
+
+		if(literal.length() > 0)
+			segments.add( new Segment( LITERAL, literal.toString() ) );
+		return segments.toArray( new Segment[segments.size()] );
+	}
+
+	private static int kindOf(String name){
+		switch( name ) {
+			case "email":
+				return EMAIL;
+			case "user":
+				return USER;
+			case "domain":
+				return DOMAIN;
+			default:
+				return VALUE;
+		}
+	}
+
+//====================================================================================================//
+// INNER CLASS
+//====================================================================================================//
+	/**
+	 * Source of the custom placeholder values of each recipient.
+	 */
+	public interface Values
+	{
+		/**
+		 * Returns the value of a placeholder for a recipient.
+		 * @param recipient {@link NetUser} the recipient.
+		 * @param name {@link String} the placeholder name.
+		 * @return {@link String} the value, or null to write nothing.
+		 */
+		String get(NetUser recipient, String name);
+	}
+
+	/* A literal text or a placeholder. */
+	private static final class Segment
+	{
+		final int kind;
+		final String text;
+
+		Segment(int kind, String text){
+			this.kind = kind;
+			this.text = text;
+		}
+	}
+}
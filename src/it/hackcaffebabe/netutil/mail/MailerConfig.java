@@ -0,0 +1,105 @@
+package it.hackcaffebabe.netutil.mail;
+
+import java.util.Properties;
+
+
+/**
+ * Package utility that reads the optional tuning keys of the mail configuration file.<br>
+ * Every key has a default value, so a configuration file with only the required
+ * <code>mail.smtp.*</code> properties still works.
+ *
+ * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
+ * @version 1.0
+ */
+final class MailerConfig
+{
+	/**Maximum number of SMTP connections opened at the same time*/
+	static final String POOL_MAX_CONNECTIONS = "mailer.pool.maxConnections";
+	/**Milliseconds after that an idle connection is closed*/
+	static final String POOL_IDLE_TIMEOUT = "mailer.pool.idleTimeout";
+	/**Milliseconds of idle after that a connection is checked with NOOP before reuse*/
+	static final String POOL_VALIDATE_AFTER = "mailer.pool.validateAfter";
+	/**Maximum number of messages sent over the same connection*/
+	static final String POOL_MAX_MESSAGES = "mailer.pool.maxMessagesPerConnection";
+	/**Milliseconds to wait for a free connection*/
+	static final String POOL_LEASE_TIMEOUT = "mailer.pool.leaseTimeout";
+
+	/**Maximum number of logins kept with their connections*/
+	static final String SESSION_CACHE_SIZE = "mailer.session.cacheSize";
+	/**Milliseconds after that a login not used is closed*/
+	static final String SESSION_IDLE_TIMEOUT = "mailer.session.idleTimeout";
+
+	/**Number of threads that send the asynchronous messages*/
+	static final String DISPATCH_WORKERS = "mailer.dispatch.workers";
+	/**Maximum number of asynchronous messages waiting a thread*/
+	static final String DISPATCH_QUEUE_CAPACITY = "mailer.dispatch.queueCapacity";
+	/**Milliseconds the caller waits for a free slot of a full queue*/
+	static final String DISPATCH_OFFER_TIMEOUT = "mailer.dispatch.offerTimeout";
+	/**False to use platform threads also if virtual threads are available*/
+	static final String DISPATCH_VIRTUAL_THREADS = "mailer.dispatch.virtualThreads";
+
+	/**Directory of the durable spool, the spool is disabled if missing*/
+	static final String SPOOL_DIRECTORY = "mailer.spool.directory";
+	/**Bytes after that the spool starts a new segment file*/
+	static final String SPOOL_SEGMENT_SIZE = "mailer.spool.segmentSize";
+	/**Number of spool segments after that the oldest is compacted*/
+	static final String SPOOL_MAX_SEGMENTS = "mailer.spool.maxSegments";
+
+	/**Maximum number of attempts of a message with transient failures*/
+	static final String RETRY_MAX_ATTEMPTS = "mailer.retry.maxAttempts";
+	/**Milliseconds before the second attempt, doubled at every attempt*/
+	static final String RETRY_INITIAL_DELAY = "mailer.retry.initialDelay";
+	/**Maximum milliseconds between two attempts*/
+	static final String RETRY_MAX_DELAY = "mailer.retry.maxDelay";
+	/**Consecutive transient failures that open the circuit of a domain*/
+	static final String RETRY_CIRCUIT_THRESHOLD = "mailer.retry.circuit.failureThreshold";
+	/**Milliseconds the circuit of a domain stays open*/
+	static final String RETRY_CIRCUIT_OPEN_TIME = "mailer.retry.circuit.openTime";
+
+	/**Maximum number of recipients of one SMTP transaction*/
+	static final String SMTP_MAX_RECIPIENTS = "mailer.smtp.maxRecipients";
+
+	private MailerConfig(){}
+
+//====================================================================================================//
+// METHOD
+//====================================================================================================//
+	/* Returns the int value of key, or the default value if the key is missing or empty. */
+	static int getInt(Properties properties, String key, int defaultValue) throws IllegalArgumentException{
+		String value = properties.getProperty( key );
+		if(value == null || value.trim().isEmpty())
+			return defaultValue;
+
+		try {
+			return Integer.parseInt( value.trim() );
+		} catch(NumberFormatException e) {
+			throw new IllegalArgumentException( "Property " + key + " must be an integer: " + value );
+		}
+	}
+
+	/* Returns the long value of key, or the default value if the key is missing or empty. */
+	static long getLong(Properties properties, String key, long defaultValue) throws IllegalArgumentException{
+		String value = properties.getProperty( key );
+		if(value == null || value.trim().isEmpty())
+			return defaultValue;
+
+		try {
+			return Long.parseLong( value.trim() );
+		} catch(NumberFormatException e) {
+			throw new IllegalArgumentException( "Property " + key + " must be a number: " + value );
+		}
+	}
+
+	/* Returns the double value of key, or the default value if the key is missing or empty. */
+	static double getDouble(Properties properties, String key, double defaultValue) throws IllegalArgumentException{
+		String value = properties.getProperty( key );
+		if(value == null || value.trim().isEmpty())
+			return defaultValue;
+
+		try {
+			return Double.parseDouble( value.trim() );
+		} catch(NumberFormatException e) {
+			throw new IllegalArgumentException( "Property " + key + " must be a number: " + value );
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package it.hackcaffebabe.netutil.mail;
+
+import javax.mail.MessagingException;
+
+
+/**
+ * <p>
+ * Receives the timings and the outcomes of the send path of {@link MailerManager}, to export them as metrics.<br>
+ * Set it with {@link MailerManager#setInstrumentation(MailerInstrumentation)}: the default is {@link #NOOP}, and with
+ * it the connections don't even read the clock, so a disabled instrumentation costs nothing.
+ * {@link JmxInstrumentation} is the exporter that ships with the library.
+ * </p>
+ * The methods are called by the threads that send, many at the same time: they MUST be thread safe, fast and
+ * they MUST NOT throw.
+ *
+ * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
+ * @version 1.0
+ */
+public interface MailerInstrumentation
+{
+	/**
+	 * The phases of SMTP that are timed.
+	 */
+	enum Phase
+	{
+		/**DNS lookup of mail server, before a new connection*/
+		RESOLVE,
+		/**TCP connect, greeting and EHLO of a new connection*/
+		CONNECT,
+		/**TLS handshake and the second EHLO*/
+		STARTTLS,
+		/**Login of a new connection*/
+		AUTH,
+		/**MAIL FROM and RCPT TO of a message*/
+		ENVELOPE,
+		/**DATA, content of message and its reply*/
+		DATA
+	}
+
+	/**
+	 * The instrumentation that does nothing.
+	 */
+	MailerInstrumentation NOOP = new MailerInstrumentation(){
+		@Override
+		public void phaseCompleted(Phase phase, long nanos, boolean success){}
+
+		@Override
+		public void messageSent(int recipients, long bytes){}
+
+		@Override
+		public void messageFailed(MessagingException e){}
+
+		@Override
+		public void messageRetried(int attempts){}
+	};
+
+	/**
+	 * Called when a phase ends, also if it failed.
+	 * @param phase {@link Phase} the phase.
+	 * @param nanos {@link Long} the duration in nanoseconds.
+	 * @param success {@link Boolean} false if the phase failed.
+	 */
+	void phaseCompleted(Phase phase, long nanos, boolean success);
+
+	/**
+	 * Called when the server accepts a message.
+	 * @param recipients {@link Integer} the recipients of envelope.
+	 * @param bytes {@link Long} the bytes of content sent.
+	 */
+	void messageSent(int recipients, long bytes);
+
+	/**
+	 * Called when a message is not sent.
+	 * @param e {@link MessagingException} the cause.
+	 */
+	void messageFailed(MessagingException e);
+
+	/**
+	 * Called when {@link RetryScheduler} schedules a message again after a transient failure.
+	 * @param attempts {@link Integer} the attempts already done.
+	 */
+	void messageRetried(int attempts);
+}
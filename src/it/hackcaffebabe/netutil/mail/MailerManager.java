@@ -1,14 +1,20 @@
 package it.hackcaffebabe.netutil.mail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import javax.mail.Address;
 import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
 import javax.mail.Session;
-import javax.mail.Transport;
-import com.sun.mail.smtp.SMTPTransport;
+import javax.mail.internet.InternetAddress;
 
 
 /**
@@ -26,6 +32,13 @@ import com.sun.mail.smtp.SMTPTransport;
  * </pre>
  * 
  * The last three properties are required.<br>
+ * The messages are sent over a pool of authenticated connections, see the <code>mailer.pool.*</code>
+ * keys of the configuration file to tune it. The sessions and connections of the last users logged in are kept,
+ * see the <code>mailer.session.*</code> keys, so switching user doesn't need a new connect.<br>
+ * The email can be paced below the limits of the relay with the <code>mailer.rate.*</code> keys.<br>
+ * The timings and outcomes of the send path can be exported with {@link #setInstrumentation(MailerInstrumentation)}.<br>
+ * This class is thread safe: the same instance can send from many threads at the same time,
+ * also with {@link #sendAsync(SimpleMessage)} that uses a pool of worker threads.<br>
  * Now you can use this follow example to send a simple email without attachments.<br>
  * That assumes that the mail configuration file is into the home folder of the project.
  * <p><pre>
@@ -49,9 +62,21 @@ public class MailerManager
 	/**Properties that represents the mail server configuration*/
 	private Properties properties;
 	/**The current session opened by the user*/
-	private Session currentSession;
-	/**The transport that send the email*/
-	private SMTPTransport transport;
+	private volatile Session currentSession;
+	/**The pool of connections that send the email*/
+	private volatile TransportPool pool;
+	/**The logins already done, with their sessions and connections*/
+	private final SessionCache sessions;
+	/**The workers that send the asynchronous email, started on first use*/
+	private DispatchEngine dispatcher;
+	/**Paces the email at the rates of the configuration file*/
+	private final RateLimiter limiter;
+	/**The durable queue of email, null if the spool is disabled*/
+	private volatile MailSpool spool;
+	/**True if the email left into the spool by the last run are already sent again*/
+	private boolean spoolRecovered;
+	/**Receives the timings and outcomes of the send path*/
+	private volatile MailerInstrumentation instrumentation = MailerInstrumentation.NOOP;
 
 	/**
 	 * Instance a Mailer object that provides utilities to login into mail server and to send the email.<br>
@@ -72,13 +97,21 @@ public class MailerManager
 	 */
 	public MailerManager(File configurationFile) throws IllegalArgumentException, IOException{
 		this.setProperties( configurationFile );
+		this.limiter = new RateLimiter( this.properties );
+		this.sessions = new SessionCache( this.properties );
+
+		String spoolDirectory = this.properties.getProperty( MailerConfig.SPOOL_DIRECTORY );
+		if(spoolDirectory != null && !spoolDirectory.trim().isEmpty())
+			this.enableSpool( new File( spoolDirectory.trim() ) );
 	}
 
 //====================================================================================================//
 // METHOD
 //====================================================================================================//	
 	/**
-	 * This method create a new session with the personal account of mail server.
+	 * This method create a new session with the personal account of mail server.<br>
+	 * If the user is already logged in with the same password by this mailer, its session and connections are
+	 * reused without to connect again.
 	 * @param user {@link String} user name to login with mail server.
 	 * @param password {@link String} password to login with mail server.
 	 * @return {@link Session} the session created with user name and password given.
@@ -92,12 +125,17 @@ public class MailerManager
 		if(password == null || password.isEmpty())
 			throw new IllegalArgumentException( "Password given can not be null or empty" );
 
-		Session session = Session.getInstance( this.properties, new AuthenticationFactory( user, password ).getAuthenticator() );
-		this.transport = (SMTPTransport) session.getTransport( "smtp" );
-		this.transport.connect( this.properties.getProperty( "mail.smtp.host" ), user, password );
-
-		this.currentSession = session;
-		return this.currentSession;
+		// a new login opens the first connection, so a wrong login fails here and not on first send
+		SessionCache.Entry login = this.sessions.login( user, password );
+		Session session = login.getSession();
+		synchronized( this ) {
+			// the previous login stays into the cache
+			this.sessions.use( login );
+			this.pool = login.getPool();
+			this.currentSession = session;
+		}
+		this.recoverSpool();
+		return session;
 	}
 
 	/**
@@ -110,26 +148,366 @@ public class MailerManager
 		if(message == null)
 			throw new IllegalArgumentException( "Message to send can not be null." );
 
+		PooledSender sender = new PooledSender( this.getLoggedPool(), this.limiter );
+		SendResult result;
+		try {
+			result = sender.send( message );
+		} finally {
+			sender.release();
+		}
+
+		if(!result.isSent())
+			throw result.getException();
+	}
+
+	/**
+	 * This method sends a batch of emails at mail server configured.<br>
+	 * The batch is sent over one connection at time, that is replaced only when it reaches the
+	 * maximum number of messages or when it breaks. The envelope of each message is pipelined if the
+	 * server supports ESMTP PIPELINING.<br>
+	 * A message that fail doesn't stop the batch: every outcome is reported in the {@link SendReport} returned.
+	 * @param messages {@link Collection} of {@link SimpleMessage} to send.
+	 * @return {@link SendReport} the outcome of each message in the same order of the collection.
+	 * @throws IllegalArgumentException if the collection given is null.
+	 * @throws MessagingException if you are not logged in.
+	 */
+	public SendReport sendAll(Collection<SimpleMessage> messages) throws IllegalArgumentException, MessagingException{
+		if(messages == null)
+			throw new IllegalArgumentException( "Messages to send can not be null." );
+
+		PooledSender sender = new PooledSender( this.getLoggedPool(), this.limiter );
+		SendReport report = new SendReport( messages.size() );
+		try {
+			for(SimpleMessage message: messages)
+				report.add( sender.send( message ) );
+		} finally {
+			sender.release();
+		}
+		return report;
+	}
+
+	/**
+	 * This method sends a email built from template given to each recipient.<br>
+	 * The email of a recipient is rendered only when it's its turn, so the recipients can be many more than the
+	 * email that fit in memory. The emails are sent over one connection at time as
+	 * {@link #sendAll(Collection)} does.
+	 * @param template {@link MailTemplate} the compiled template of subject and body.
+	 * @param sender {@link NetUser} the sender of all the emails.
+	 * @param recipients {@link Collection} of {@link NetUser} that receive one email each.
+	 * @param values {@link MailTemplate.Values} the values of custom placeholders, can be null.
+	 * @return {@link SendReport} the outcome of each email in the same order of the recipients, a email that can not
+	 *         be rendered, also because values threw an exception, has a result without message and with its
+	 *         recipient, see {@link SendResult#getRecipients()}.
+	 * @throws IllegalArgumentException if template, sender or recipients are null.
+	 * @throws MessagingException if you are not logged in.
+	 */
+	public SendReport sendAll(MailTemplate template, NetUser sender, Collection<NetUser> recipients, MailTemplate.Values values) throws IllegalArgumentException, MessagingException{
+		if(template == null || sender == null || recipients == null)
+			throw new IllegalArgumentException( "Template, sender and recipients can not be null." );
+
+		PooledSender s = new PooledSender( this.getLoggedPool(), this.limiter );
+		Session session = this.currentSession;
+		SendReport report = new SendReport( recipients.size() );
+		try {
+			for(NetUser recipient: recipients) {
+				SimpleMessage message;
+				try {
+					message = template.newMessage( session, sender, recipient, values );
+				} catch(IllegalArgumentException e) {
+					report.add( new SendResult( null, toAddresses( recipient ), null, new MessagingException( e.getMessage(), e ) ) );
+					continue;
+				} catch(MessagingException e) {
+					report.add( new SendResult( null, toAddresses( recipient ), null, e ) );
+					continue;
+				} catch(RuntimeException e) {
+					// thrown by values: only the email of this recipient is lost, not the rest of the list
+					report.add( new SendResult( null, toAddresses( recipient ), null, new MessagingException( "Email can not be rendered: " + e, e ) ) );
+					continue;
+				}
+				report.add( s.send( message ) );
+			}
+		} finally {
+			s.release();
+		}
+		return report;
+	}
+
+	/**
+	 * This method sends the same email to many recipients with the fewest SMTP transactions.<br>
+	 * The recipients are grouped by domain without duplicates, and each group is sent with one transaction for
+	 * every <code>mailer.smtp.maxRecipients</code> recipients (100 by default), so the email data is sent once
+	 * for each transaction. The recipients given are used only for the envelope: the headers of email are
+	 * sent as they are, so the recipients don't see each other unless they are in the headers too.
+	 * @param message {@link SimpleMessage} the email to send.
+	 * @param recipients {@link Collection} of {@link NetUser} that receive the email.
+	 * @return {@link SendReport} the outcome of each transaction, in order of first recipient of each domain. Each
+	 *         result has the recipients of its transaction, see {@link SendResult#getRecipients()}, so the failed ones
+	 *         can be sent again alone.
+	 * @throws IllegalArgumentException if message, recipients or one of them are null.
+	 * @throws MessagingException if you are not logged in or the email can not be saved.
+	 */
+	public SendReport sendToAll(SimpleMessage message, Collection<NetUser> recipients) throws IllegalArgumentException, MessagingException{
+		if(message == null)
+			throw new IllegalArgumentException( "Message to send can not be null." );
+
+		int maxRecipients = MailerConfig.getInt( this.properties, MailerConfig.SMTP_MAX_RECIPIENTS, 100 );
+		List<RecipientPlanner.Envelope> envelopes = new RecipientPlanner( maxRecipients ).plan( recipients );
+		PooledSender sender = new PooledSender( this.getLoggedPool(), this.limiter );
+		message.saveChanges();
+
+		SendReport report = new SendReport( envelopes.size() );
+		try {
+			for(RecipientPlanner.Envelope e: envelopes)
+				report.add( sender.send( message, e.getAddresses() ) );
+		} finally {
+			sender.release();
+		}
+		return report;
+	}
+
+	/**
+	 * This method queues the email to be sent by a pool of worker threads and returns immediately.<br>
+	 * It can be called by many threads at the same time. If the queue is full the caller waits
+	 * for a free slot, see the <code>mailer.dispatch.*</code> keys of the configuration file.<br>
+	 * The email is encoded by the worker that sends it. A email frozen with {@link SimpleMessage#freeze()} before
+	 * this call is encoded once by the caller, and the workers only write its bytes, also when it's sent again by
+	 * {@link RetryScheduler}: don't change it until it's sent.
+	 * @param message {@link SimpleMessage} object represent the email to send.
+	 * @return {@link CompletableFuture} completed with the {@link SendResult} of message, or completed
+	 *         exceptionally with {@link MessagingException} if the message can not be queued.
+	 * @throws IllegalArgumentException if {@link SimpleMessage} given is null.
+	 * @throws MessagingException if you are not logged in.
+	 */
+	public CompletableFuture<SendResult> sendAsync(SimpleMessage message) throws IllegalArgumentException, MessagingException{
+		return this.sendAsync( message, true );
+	}
+
+	/* Same of sendAsync( message ), but if wait is false a full queue refuses the message at once instead of waiting. */
+	CompletableFuture<SendResult> sendAsync(SimpleMessage message, boolean wait) throws IllegalArgumentException, MessagingException{
+		if(message == null)
+			throw new IllegalArgumentException( "Message to send can not be null." );
+
+		this.getLoggedPool();
+		return this.getDispatcher().submit( message, wait );
+	}
+
+	/**
+	 * Enables the durable spool into the directory given.<br>
+	 * The email sent with {@link #sendDurable(SimpleMessage)} are written into the spool before to be sent, and are
+	 * removed from it only when the server accepted or refused them. The email left into the spool by a crash are sent
+	 * again after the next login. The spool can also be enabled with the <code>mailer.spool.directory</code> key of the
+	 * configuration file.
+	 * @param directory {@link File} the spool directory, created if missing.
+	 * @throws IllegalArgumentException if directory is null.
+	 * @throws IOException if the spool can not be opened.
+	 */
+	public void enableSpool(File directory) throws IllegalArgumentException, IOException{
+		if(directory == null)
+			throw new IllegalArgumentException( "Spool directory can not be null." );
+
+		synchronized( this ) {
+			if(this.spool != null)
+				this.spool.close();
+
+			long segmentSize = MailerConfig.getLong( this.properties, MailerConfig.SPOOL_SEGMENT_SIZE, 16L * 1024 * 1024 );
+			int maxSegments = MailerConfig.getInt( this.properties, MailerConfig.SPOOL_MAX_SEGMENTS, 8 );
+			this.spool = new MailSpool( directory, segmentSize, maxSegments );
+			this.spoolRecovered = false;
+		}
+		this.recoverSpool();
+	}
+
+	/**
+	 * This method writes the email into the durable spool and then sends it like {@link #sendAsync(SimpleMessage)}.<br>
+	 * When this method returns the email is on disk, so it's not lost if the process dies before it's sent.
+	 * @param message {@link SimpleMessage} object represent the email to send.
+	 * @return {@link CompletableFuture} completed with the {@link SendResult} of message.
+	 * @throws IllegalArgumentException if {@link SimpleMessage} given is null.
+	 * @throws MessagingException if you are not logged in, the spool is not enabled or the message can not be written.
+	 * @throws IOException if the spool can not be written.
+	 */
+	public CompletableFuture<SendResult> sendDurable(SimpleMessage message) throws IllegalArgumentException, MessagingException, IOException{
+		if(message == null)
+			throw new IllegalArgumentException( "Message to send can not be null." );
+
+		this.getLoggedPool();
+		MailSpool s = this.spool;
+		if(s == null)
+			throw new MessagingException( "Spool is not enabled. Use Mailer.enableSpool( File ) first." );
+
+		message.saveChanges();
+		ByteArrayOutputStream rfc822 = new ByteArrayOutputStream();
+		message.writeTo( rfc822 );
+		return this.dispatchSpooled( s, s.append( rfc822.toByteArray() ), message );
+	}
+
+	/**
+	 * Close the current opened session and all its connections, the next login of its user connects again.
+	 * @throws MessagingException {@link Exception} if you are not logged in.
+	 */
+	public synchronized void logout() throws MessagingException{
 		if(this.currentSession == null)
 			throw new MessagingException( "You are not logged in. Use Mailer.login( String, String ) first." );
 
-		Transport.send( message );
+		this.sessions.logout();
+		this.pool = null;
+		this.currentSession = null;
 	}
 
 	/**
-	 * Close the current opened session.
-	 * @throws MessagingException {@link Exception} if you are not logged in.
+	 * Stops the worker threads of asynchronous send and closes all the sessions.<br>
+	 * The messages still queued are completed exceptionally.
+	 */
+	public synchronized void shutdown(){
+		if(this.dispatcher != null) {
+			this.dispatcher.shutdown();
+			this.dispatcher = null;
+		}
+
+		this.sessions.close();
+		this.pool = null;
+		this.currentSession = null;
+
+		if(this.spool != null) {
+			try {
+				this.spool.close();
+			} catch(IOException e) {
+				// the records are already forced on disk, at worst an email will be sent again
+			}
+			this.spool = null;
+		}
+	}
+
+	/*
+	 * Sends again the email left into the spool by the last run, once after the spool is enabled and you are logged in.
+	 * The pending ids are copied under the lock, but the email are submitted after it's released: submit waits
+	 * while the queue is full, and logout, shutdown or a sendAsync must not wait with it.
+	 */
+	private void recoverSpool(){
+		MailSpool s;
+		Session session;
+		List<Long> pending;
+		synchronized( this ) {
+			if(this.spool == null || this.spoolRecovered || this.currentSession == null)
+				return;
+
+			this.spoolRecovered = true;
+			s = this.spool;
+			session = this.currentSession;
+			pending = s.getPending();
+		}
+
+		for(long id: pending) {
+			try {
+				byte[] rfc822 = s.read( id );
+				if(rfc822 != null)
+					this.dispatchSpooled( s, id, new SimpleMessage( session, new ByteArrayInputStream( rfc822 ) ) );
+			} catch(IOException | MessagingException e) {
+				// the email stays into the spool and will be tried again on next start
+			}
+		}
+	}
+
+	/* Sends a spooled email and removes it from spool when the server accepted or refused it. */
+	private CompletableFuture<SendResult> dispatchSpooled(final MailSpool s, final long id, SimpleMessage message){
+		CompletableFuture<SendResult> future = this.getDispatcher().submit( message, true );
+		future.thenAccept( result -> {
+			// on connection errors the email stays into the spool and it's sent again on next start
+			if(result.isSent() || result.getException() instanceof SendFailedException) {
+				try {
+					s.ack( id );
+				} catch(IOException e) {
+					// at worst the email will be sent again
+				}
+			}
+		} );
+		return future;
+	}
+
+//====================================================================================================//
+// GETTER
+//====================================================================================================//
+	/**
+	 * Returns the instrumentation of the send path.
+	 * @return {@link MailerInstrumentation} the instrumentation, {@link MailerInstrumentation#NOOP} by default.
+	 */
+	public MailerInstrumentation getInstrumentation(){
+		return this.instrumentation;
+	}
+
+	/**
+	 * Returns the state of the connection pool of current login.
+	 * @return {@link PoolStats} the state of pool, or null if you are not logged in.
+	 */
+	public PoolStats getPoolStats(){
+		TransportPool p = this.pool;
+		return p == null ? null : p.getStats();
+	}
+
+	/**
+	 * Returns the number of email sent with {@link #sendAsync(SimpleMessage)} that are waiting a worker thread.
+	 * @return {@link Integer} the queued email, 0 if no email was sent asynchronously.
 	 */
-	public void logout() throws MessagingException{
-		if(this.currentSession != null)
+	public int getQueueDepth(){
+		DispatchEngine d;
+		synchronized( this ) {
+			d = this.dispatcher;
+		}
+		return d == null ? 0 : d.getQueueDepth();
+	}
+
+	/* Returns the mail configuration. */
+	Properties getProperties(){
+		return this.properties;
+	}
+
+	/* Returns the limiter of send rate. */
+	RateLimiter getRateLimiter(){
+		return this.limiter;
+	}
+
+	/* Returns the pool of current login, or null if you are not logged in. */
+	TransportPool getPool(){
+		return this.pool;
+	}
+
+	/* Returns the pool of current login, throws if you are not logged in. */
+	private TransportPool getLoggedPool() throws MessagingException{
+		TransportPool p = this.pool;
+		if(p == null)
 			throw new MessagingException( "You are not logged in. Use Mailer.login( String, String ) first." );
+		return p;
+	}
 
-		this.transport.close();
+	/* Returns the dispatcher, starting it on first use. */
+	private synchronized DispatchEngine getDispatcher(){
+		if(this.dispatcher == null)
+			this.dispatcher = new DispatchEngine( this, this.properties );
+		return this.dispatcher;
+	}
+
+	/* Returns the address of a recipient for its SendResult, null if there is not a recipient. */
+	private static Address[] toAddresses(NetUser recipient){
+		if(recipient == null || recipient.getEmail() == null)
+			return null;
+
+		InternetAddress a = new InternetAddress();
+		a.setAddress( recipient.getEmail() );
+		return new Address[]{ a };
 	}
 
 //====================================================================================================//
 // SETTER
 //====================================================================================================//	
+	/**
+	 * Sets the instrumentation that receives the timings and outcomes of the send path, also of the cached logins.
+	 * @param instrumentation {@link MailerInstrumentation} the instrumentation, null to disable it.
+	 */
+	public synchronized void setInstrumentation(MailerInstrumentation instrumentation){
+		this.instrumentation = instrumentation == null ? MailerInstrumentation.NOOP : instrumentation;
+		this.sessions.setInstrumentation( this.instrumentation );
+	}
+
 	/* Sets the connection properties from file.*/
 	private void setProperties(File configurationFile) throws IllegalArgumentException, IOException{
 		if(!configurationFile.exists())
@@ -0,0 +1,282 @@
+package it.hackcaffebabe.netutil.mail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.mail.MessagingException;
+import javax.mail.internet.InternetHeaders;
+import javax.mail.internet.MimeBodyPart;
+
+
+/**
+ * <p>
+ * Cache of MIME body parts already encoded, for the attachments and texts sent with many messages.<br>
+ * A file is cached by path, last modified time and size, so a changed file is encoded again; a text is cached
+ * by the SHA-256 of its content and subtype. The parts returned write the cached bytes straight to the transport,
+ * without read or encode anything.<br>
+ * The cache is bounded by the bytes of the encoded parts and evicts the least recently used first.
+ * It's thread safe and can be shared by all the messages.
+ * </p>
+ * Use it like this:
+ * <pre>
+ * MimePartCache cache = new MimePartCache( 64 * 1024 * 1024 );
+ * SimpleMessage m = new SimpleMessage( session );
+ * m.setBodyMessage( "Hello", null );
+ * m.addBodyPart( cache.getAttachment( new File( "terms.pdf" ) ) );
+ * m.addBodyPart( cache.getText( footer, "html" ) );
+ * </pre>
+ *
+ * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
+ * @version 1.0
+ */
+public class MimePartCache
+{
+	private static final byte[] CRLF = { '\r', '\n' };
+
+	private final long maxBytes;
+	/**Encoded parts in access order. Guarded by this*/
+	private final LinkedHashMap<String, Encoded> entries = new LinkedHashMap<>( 16, 0.75f, true );
+	private long bytes;
+
+	private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong(), evictions = new AtomicLong();
+
+	/**
+	 * Instance a empty cache.
+	 * @param maxBytes {@link Long} maximum bytes of the encoded parts into the cache.
+	 * @throws IllegalArgumentException if maxBytes is not greater than zero.
+	 */
+	public MimePartCache(long maxBytes) throws IllegalArgumentException{
+		if(maxBytes <= 0)
+			throw new IllegalArgumentException( "Cache size must be greater than zero." );
+		this.maxBytes = maxBytes;
+	}
+
+//====================================================================================================//
+// METHOD
+//====================================================================================================//
+	/**
+	 * Returns a attachment of the file given, encoding the file only if it's not cached.
+	 * @param file {@link File} the file to attach.
+	 * @return {@link MimeBodyPart} a new part that writes the cached bytes, it can be added to one message.
+	 * @throws IllegalArgumentException if file is null.
+	 * @throws MessagingException if the file can not be read or encoded.
+	 */
+	public MimeBodyPart getAttachment(File file) throws IllegalArgumentException, MessagingException{
+		if(file == null)
+			throw new IllegalArgumentException( "File to attach can not be null." );
+
+		File f = file.getAbsoluteFile();
+		String key = "file:" + f.getPath() + '|' + f.lastModified() + '|' + f.length();
+		Encoded e = this.lookup( key );
+		if(e == null)
+			e = this.store( key, encode( new StreamingAttachmentPart( f ) ) );
+		return e.newPart();
+	}
+
+	/**
+	 * Returns a text part, like a common HTML footer, encoding the text only if it's not cached.
+	 * @param text {@link String} the text.
+	 * @param subtype {@link String} the text subtype, like "plain" or "html".
+	 * @return {@link MimeBodyPart} a new part that writes the cached bytes, it can be added to one message.
+	 * @throws IllegalArgumentException if text or subtype are null.
+	 * @throws MessagingException if the text can not be encoded.
+	 */
+	public MimeBodyPart getText(String text, String subtype) throws IllegalArgumentException, MessagingException{
+		if(text == null || subtype == null)
+			throw new IllegalArgumentException( "Text and subtype can not be null." );
+
+		String key = "text/" + subtype + ':' + sha256( text );
+		Encoded e = this.lookup( key );
+		if(e == null) {
+			EncodablePart part = new EncodablePart();
+			part.setText( text, "UTF-8", subtype );
+			e = this.store( key, encode( part ) );
+		}
+		return e.newPart();
+	}
+
+	/**
+	 * Removes all the parts from cache, the counters are not reset.
+	 */
+	public synchronized void clear(){
+		this.entries.clear();
+		this.bytes = 0;
+	}
+
+	private synchronized Encoded lookup(String key){
+		Encoded e = this.entries.get( key );
+		if(e == null)
+			this.misses.incrementAndGet();
+		else
+			this.hits.incrementAndGet();
+		return e;
+	}
+
+	/* Adds a part, evicting the least recently used parts. A part bigger than the cache is not stored. */
+	private synchronized Encoded store(String key, Encoded e){
+		if(e.size() > this.maxBytes)
+			return e;
+
+		Encoded old = this.entries.put( key, e );
+		if(old != null)
+			this.bytes -= old.size();
+		this.bytes += e.size();
+
+		Iterator<Encoded> i = this.entries.values().iterator();
+		while( this.bytes > this.maxBytes && i.hasNext() ) {
+			this.bytes -= i.next().size();
+			i.remove();
+			this.evictions.incrementAndGet();
+		}
+		return e;
+	}
+
+	/* Encodes a part into header and body bytes. */
+	private static Encoded encode(MimeBodyPart part) throws MessagingException{
+		try {
+			if(part instanceof EncodablePart)
+				((EncodablePart) part).update();
+
+			ByteArrayOutputStream headers = new ByteArrayOutputStream();
+			Enumeration<?> lines = part.getAllHeaderLines();
+			while( lines.hasMoreElements() ) {
+				headers.write( ((String) lines.nextElement()).getBytes( StandardCharsets.ISO_8859_1 ) );
+				headers.write( CRLF );
+			}
+			headers.write( CRLF );
+
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			if(part instanceof StreamingAttachmentPart) {
+				((StreamingAttachmentPart) part).writeContentTo( body );
+			} else {
+				ByteArrayOutputStream all = new ByteArrayOutputStream();
+				part.writeTo( all );
+				byte[] b = all.toByteArray();
+				body.write( b, headers.size(), b.length - headers.size() );
+			}
+			return new Encoded( headers.toByteArray(), body.toByteArray() );
+		} catch(IOException e) {
+			throw new MessagingException( "Part can not be encoded.", e );
+		}
+	}
+
+	private static String sha256(String text){
+		try {
+			byte[] digest = MessageDigest.getInstance( "SHA-256" ).digest( text.getBytes( StandardCharsets.UTF_8 ) );
+			StringBuilder sb = new StringBuilder( digest.length * 2 );
+			for(byte b: digest)
+				sb.append( Character.forDigit( (b >> 4) & 0xf, 16 ) ).append( Character.forDigit( b & 0xf, 16 ) );
+			return sb.toString();
+		} catch(NoSuchAlgorithmException e) {
+			throw new IllegalStateException( "SHA-256 is not available.", e );
+		}
+	}
+
+//====================================================================================================//
+// GETTER
+//====================================================================================================//
+	/**
+	 * Returns the number of parts found into the cache.
+	 * @return {@link Long} the cache hits.
+	 */
+	public long getHits(){
+		return this.hits.get();
+	}
+
+	/**
+	 * Returns the number of parts not found into the cache and encoded.
+	 * @return {@link Long} the cache misses.
+	 */
+	public long getMisses(){
+		return this.misses.get();
+	}
+
+	/**
+	 * Returns the number of parts removed to free space.
+	 * @return {@link Long} the cache evictions.
+	 */
+	public long getEvictions(){
+		return this.evictions.get();
+	}
+
+	/**
+	 * Returns the bytes of the encoded parts into the cache.
+	 * @return {@link Long} the cache size in bytes.
+	 */
+	public synchronized long getSize(){
+		return this.bytes;
+	}
+
+	/**
+	 * Returns the number of parts into the cache.
+	 * @return {@link Integer} the number of cached parts.
+	 */
+	public synchronized int getCount(){
+		return this.entries.size();
+	}
+
+//====================================================================================================//
+// INNER CLASS
+//====================================================================================================//
+	/* Header and body bytes of a encoded part, never modified. */
+	private static final class Encoded
+	{
+		final byte[] headers, body;
+
+		Encoded(byte[] headers, byte[] body){
+			this.headers = headers;
+			this.body = body;
+		}
+
+		long size(){
+			return this.headers.length + this.body.length;
+		}
+
+		/* Every message gets its own headers, the body bytes are shared. */
+		MimeBodyPart newPart() throws MessagingException{
+			return new CachedPart( new InternetHeaders( new ByteArrayInputStream( this.headers ) ), this.body );
+		}
+	}
+
+	/* A part that writes the cached bytes as they are. */
+	private static final class CachedPart extends MimeBodyPart
+	{
+		CachedPart(InternetHeaders headers, byte[] body) throws MessagingException{
+			super( headers, body );
+		}
+
+		@Override
+		protected void updateHeaders() throws MessagingException{
+			// the headers are already complete
+		}
+
+		@Override
+		public void writeTo(OutputStream os) throws IOException, MessagingException{
+			Enumeration<?> lines = this.getAllHeaderLines();
+			while( lines.hasMoreElements() ) {
+				os.write( ((String) lines.nextElement()).getBytes( StandardCharsets.ISO_8859_1 ) );
+				os.write( CRLF );
+			}
+			os.write( CRLF );
+			os.write( this.content );
+		}
+	}
+
+	/* A part that can complete its headers before to be encoded. */
+	private static final class EncodablePart extends MimeBodyPart
+	{
+		void update() throws MessagingException{
+			this.updateHeaders();
+		}
+	}
+}
@@ -1,7 +1,14 @@
 package it.hackcaffebabe.netutil.mail;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
-import java.util.StringTokenizer;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import javax.mail.Address;
+import javax.mail.internet.InternetAddress;
 
 
 /**
@@ -12,6 +19,8 @@ import java.util.StringTokenizer;
  * NetUser e = new NetUser();
  * e.setEmail( "some.email@somedomanin.asd" );
  * </pre>
+ * The address is validated in one pass without regular expressions, and user and domain are kept as the
+ * position of '@' into the address: the two strings are created only when they are asked.
  * </p>
  * 
  * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
@@ -20,9 +29,15 @@ import java.util.StringTokenizer;
 public class NetUser implements Serializable, Comparable<NetUser>
 {
 	private static final long serialVersionUID = -5042718788066202845L;
+	/**Same serial form of the first version, with user and domain written as strings*/
+	private static final ObjectStreamField[] serialPersistentFields = {
+			new ObjectStreamField( "email", String.class ), new ObjectStreamField( "user", String.class ),
+			new ObjectStreamField( "domain", String.class ) };
 	private String email;
-	private String user;
-	private String domain;
+	/**Position of '@' into email*/
+	private transient int at;
+	private transient String user;
+	private transient String domain;
 
 	/**
 	 * Instance a void email with no argument.<br>
@@ -39,6 +54,12 @@ public class NetUser implements Serializable, Comparable<NetUser>
 		this.setAddress( email );
 	}
 
+	/* Instance a Email already validated, at is the position of '@' returned by indexOfAt. */
+	NetUser(String email, int at){
+		this.email = email;
+		this.at = at;
+	}
+
 //====================================================================================================//
 // GETTER
 //====================================================================================================//	
@@ -55,6 +76,8 @@ public class NetUser implements Serializable, Comparable<NetUser>
 	 * @return {@link String} represent the domain part of EMail.
 	 */
 	public String getDomain(){
+		if(this.domain == null && this.email != null)
+			this.domain = this.email.substring( this.at + 1 );
 		return this.domain;
 	}
 
@@ -63,14 +86,99 @@ public class NetUser implements Serializable, Comparable<NetUser>
 	 * @return {@link String} represent the user part of EMail.
 	 */
 	public String getUser(){
-		return user;
+		if(this.user == null && this.email != null)
+			this.user = this.email.substring( 0, this.at );
+		return this.user;
+	}
+
+	/**
+	 * Returns true if the string given is a valid Email in format uuuu.uuuu@dddd.dd, this method never throws.
+	 * @param email {@link String} the Email to check.
+	 * @return {@link Boolean} true if email is not null and valid.
+	 */
+	public static boolean isValid(String email){
+		return email != null && indexOfAt( email ) > 0;
+	}
+
+	/* Returns the lower case domains of addresses, an address not valid for NetUser is split at the last '@'. */
+	static Set<String> getDomains(Address[] addresses){
+		Set<String> domains = new LinkedHashSet<>();
+		if(addresses == null)
+			return domains;
+
+		for(Address a: addresses) {
+			String email = a instanceof InternetAddress ? ((InternetAddress) a).getAddress() : a.toString();
+			int at = indexOfAt( email );
+			if(at < 0)
+				at = email.lastIndexOf( '@' );
+			domains.add( email.substring( at + 1 ).toLowerCase() );
+		}
+		return domains;
+	}
+
+	/*
+	 * Returns the position of '@' if email is valid, -1 otherwise, used to validate without exceptions. Accepts the same addresses of
+	 * ^[_A-Za-z0-9-]+(\.[_A-Za-z0-9-]+)*@[A-Za-z0-9]+(\.[A-Za-z0-9]+)*(\.[A-Za-z]{2,})$
+	 * that is: user of dot separated words of letters, digits, '_' and '-'; domain of two or more dot
+	 * separated labels of letters and digits, the last one of two or more letters.
+	 */
+	static int indexOfAt(String email){
+		int at = -1;
+		int labels = 0; // labels of domain
+		int length = 0; // chars of current word or label
+		boolean letters = true; // current label has only letters
+		for(int i = 0; i < email.length(); i++) {
+			char c = email.charAt( i );
+			if(c == '.' || c == '@') {
+				if(length == 0 || (c == '@' && at >= 0))
+					return -1;
+				if(c == '@')
+					at = i;
+				else if(at >= 0)
+					labels++;
+				length = 0;
+				letters = true;
+				continue;
+			}
+
+			boolean letter = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+			boolean digit = c >= '0' && c <= '9';
+			if(at < 0) {
+				if(!letter && !digit && c != '_' && c != '-')
+					return -1;
+			} else {
+				if(!letter && !digit)
+					return -1;
+				letters &= letter;
+			}
+			length++;
+		}
+		return at >= 0 && labels > 0 && length >= 2 && letters ? at : -1;
+	}
+
+	/* Same value of s.substring( from, to ).hashCode(), without the substring. */
+	private static int hash(String s, int from, int to){
+		int h = 0;
+		for(int i = from; i < to; i++)
+			h = 31 * h + s.charAt( i );
+		return h;
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException{
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put( "email", this.email );
+		fields.put( "user", this.getUser() );
+		fields.put( "domain", this.getDomain() );
+		out.writeFields();
 	}
 
-	/* this method set user and domain class attributes */
-	private void getMoreInformation(String email){
-		StringTokenizer parse = new StringTokenizer( email, "@" );
-		this.user = parse.nextToken();
-		this.domain = parse.nextToken();
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+		ObjectInputStream.GetField fields = in.readFields();
+		this.email = (String) fields.get( "email", null );
+		this.user = (String) fields.get( "user", null );
+		this.domain = (String) fields.get( "domain", null );
+		if(this.email != null)
+			this.at = this.email.indexOf( '@' );
 	}
 
 //====================================================================================================//
@@ -85,11 +193,14 @@ public class NetUser implements Serializable, Comparable<NetUser>
 		if(email == null || email.isEmpty())
 			throw new IllegalArgumentException( "Email given can not be empty or null." );
 
-		if(!email.matches( "^[_A-Za-z0-9-]+(\\.[_A-Za-z0-9-]+)*@[A-Za-z0-9]+(\\.[A-Za-z0-9]+)*(\\.[A-Za-z]{2,})$" ))
+		int at = indexOfAt( email );
+		if(at < 0)
 			throw new IllegalArgumentException( "Email given is invalid." );
 
 		this.email = email;
-		this.getMoreInformation( email );
+		this.at = at;
+		this.user = null;
+		this.domain = null;
 	}
 
 //====================================================================================================//
@@ -109,9 +220,9 @@ public class NetUser implements Serializable, Comparable<NetUser>
 	public int hashCode(){
 		final int prime = 31;
 		int result = 1;
-		result = prime * result + ((domain == null) ? 0 : domain.hashCode());
+		result = prime * result + ((email == null) ? 0 : hash( email, this.at + 1, email.length() ));
 		result = prime * result + ((email == null) ? 0 : email.hashCode());
-		result = prime * result + ((user == null) ? 0 : user.hashCode());
+		result = prime * result + ((email == null) ? 0 : hash( email, 0, this.at ));
 		return result;
 	}
 
@@ -0,0 +1,298 @@
+package it.hackcaffebabe.netutil.mail;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.URLName;
+import javax.mail.internet.InternetAddress;
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPMessage;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import com.sun.mail.smtp.SMTPTransport;
+import it.hackcaffebabe.netutil.mail.MailerInstrumentation.Phase;
+
+
+/**
+ * <p>
+ * {@link SMTPTransport} that uses the ESMTP PIPELINING extension (RFC 2920) when the server advertises it.<br>
+ * MAIL FROM and all the RCPT TO commands of a message are written together and then all the replies are read,
+ * so the envelope costs one round trip instead of one for each command.
+ * DATA is still sent after the envelope replies, so no content is written if every recipient is rejected.
+ * </p>
+ * The plain SMTP path is used if the server doesn't support PIPELINING, if the
+ * <code>mailer.pipelining</code> property is false or if the envelope needs DSN, 8BITMIME
+ * or custom MAIL extensions.<br>
+ * The recipients rejected by the last message sent are returned by {@link #getRejectedRecipients()}.<br>
+ * The phases of connect and send are timed by the {@link MailerInstrumentation} of transport, unless it's
+ * {@link MailerInstrumentation#NOOP}.
+ *
+ * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
+ * @version 1.0
+ */
+class PipeliningSMTPTransport extends SMTPTransport
+{
+	/**Property to disable pipelining even if the server supports it*/
+	static final String PIPELINING = "mailer.pipelining";
+
+	private Message message;
+	private Address[] envelope;
+	private boolean pipelined;
+	private final List<Address> rejected = new ArrayList<>();
+
+	/**Receives the timings of phases, set by the pool before the transport is used*/
+	MailerInstrumentation instrumentation = MailerInstrumentation.NOOP;
+	/**The phase timed now and its start, phase is null if nothing is timed*/
+	private Phase phase;
+	private long phaseStart;
+	private long dataBytes;
+
+	/**
+	 * Instance a not connected transport.
+	 * @param session {@link Session} the session of transport.
+	 * @param urlname {@link URLName} the URL name of the mail server.
+	 */
+	PipeliningSMTPTransport(Session session, URLName urlname){
+		super( session, urlname );
+	}
+
+//====================================================================================================//
+// GETTER
+//====================================================================================================//
+	/**
+	 * Returns the recipients rejected by the server during the last message sent.<br>
+	 * With <code>mail.smtp.sendpartial=true</code> the message is delivered to the other recipients.
+	 * @return {@link Address} array of rejected recipient, empty if all are accepted.
+	 */
+	synchronized Address[] getRejectedRecipients(){
+		return this.rejected.toArray( new Address[this.rejected.size()] );
+	}
+
+	/**
+	 * Returns the bytes of content of the last message sent, counted only if the transport is instrumented.
+	 * @return {@link Long} the bytes written after DATA, 0 if not counted.
+	 */
+	synchronized long getDataBytes(){
+		return this.dataBytes;
+	}
+
+	/**
+	 * Returns true if the envelope of the messages is pipelined.
+	 * @return {@link Boolean} true if the server supports PIPELINING and it's not disabled.
+	 */
+	synchronized boolean isPipelining(){
+		return this.supportsExtension( "PIPELINING" )
+				&& !"false".equalsIgnoreCase( this.session.getProperty( PIPELINING ) );
+	}
+
+//====================================================================================================//
+// OVERRIDE
+//====================================================================================================//
+	@Override
+	protected synchronized boolean protocolConnect(String host, int port, String user, String password) throws MessagingException{
+		this.startPhase( Phase.CONNECT );
+		boolean connected = false;
+		try {
+			connected = super.protocolConnect( host, port, user, password );
+			return connected;
+		} finally {
+			this.endPhase( connected );
+		}
+	}
+
+	@Override
+	protected void startTLS() throws MessagingException{
+		this.nextPhase( Phase.STARTTLS );
+		super.startTLS();
+	}
+
+	@Override
+	public boolean supportsExtension(String ext){
+		// SMTPTransport.protocolConnect() asks for AUTH just before to login
+		if((this.phase == Phase.CONNECT || this.phase == Phase.STARTTLS) && "AUTH".equals( ext ))
+			this.nextPhase( Phase.AUTH );
+		return super.supportsExtension( ext );
+	}
+
+	@Override
+	public synchronized void sendMessage(Message message, Address[] addresses) throws MessagingException, SendFailedException{
+		this.rejected.clear();
+		this.dataBytes = 0;
+		this.message = message;
+		this.envelope = addresses;
+		this.pipelined = this.isPipelining() && this.isPlainEnvelope( message );
+		try {
+			super.sendMessage( message, addresses );
+		} finally {
+			this.endPhase( false ); // only if a phase failed
+			this.message = null;
+			this.envelope = null;
+		}
+	}
+
+	@Override
+	protected void mailFrom() throws MessagingException{
+		this.startPhase( Phase.ENVELOPE );
+		// with pipelining MAIL FROM is written together with RCPT TO
+		if(!this.pipelined)
+			super.mailFrom();
+	}
+
+	@Override
+	protected void rcptTo() throws MessagingException{
+		if(this.pipelined)
+			this.pipelinedRcptTo();
+		else
+			super.rcptTo();
+		this.endPhase( true );
+	}
+
+	@Override
+	protected OutputStream data() throws MessagingException{
+		this.startPhase( Phase.DATA );
+		OutputStream out = super.data();
+		return this.phase == null ? out : new CountingStream( out );
+	}
+
+	@Override
+	protected void finishData() throws IOException, MessagingException{
+		super.finishData();
+		this.endPhase( true );
+	}
+
+	/* Writes MAIL FROM and all the RCPT TO, then reads all the replies. */
+	private void pipelinedRcptTo() throws MessagingException{
+		String mailFrom = "MAIL FROM:<" + this.getEnvelopeFrom() + ">";
+		String[] rcptTo = new String[this.envelope.length];
+		for(int i = 0; i < this.envelope.length; i++)
+			rcptTo[i] = "RCPT TO:<" + ((InternetAddress) this.envelope[i]).getAddress() + ">";
+
+		this.sendCommand( mailFrom );
+		for(String cmd: rcptTo)
+			this.sendCommand( cmd );
+
+		// the replies MUST be read all, also if MAIL FROM is rejected
+		int mailReply = this.readServerResponse();
+		String mailResponse = this.getLastServerResponse();
+
+		List<Address> accepted = new ArrayList<>();
+		SendFailedException chain = null;
+		for(int i = 0; i < this.envelope.length; i++) {
+			int rc = this.readServerResponse();
+			if(rc == 250 || rc == 251) {
+				accepted.add( this.envelope[i] );
+			} else {
+				this.rejected.add( this.envelope[i] );
+				SMTPAddressFailedException e = new SMTPAddressFailedException( (InternetAddress) this.envelope[i], rcptTo[i], rc, this.getLastServerResponse() );
+				if(chain == null)
+					chain = e;
+				else
+					chain.setNextException( e );
+			}
+		}
+
+		if(mailReply != 250) {
+			this.rset();
+			throw new SMTPSendFailedException( mailFrom, mailReply, mailResponse, chain, null, this.envelope, null );
+		}
+
+		boolean sendPartial = "true".equalsIgnoreCase( this.session.getProperty( "mail.smtp.sendpartial" ) );
+		if(accepted.isEmpty() || (!this.rejected.isEmpty() && !sendPartial)) {
+			this.rset();
+			Address[] valid = accepted.toArray( new Address[accepted.size()] );
+			Address[] invalid = this.rejected.toArray( new Address[this.rejected.size()] );
+			throw new SendFailedException( "Invalid Addresses", chain, null, valid, invalid );
+		}
+	}
+
+	/* Returns the envelope sender like SMTPTransport.mailFrom() does without extensions. */
+	private String getEnvelopeFrom() throws MessagingException{
+		String from = this.session.getProperty( "mail.smtp.from" );
+		if(from != null && !from.isEmpty())
+			return from;
+
+		Address[] fa = this.message.getFrom();
+		if(fa != null && fa.length > 0 && fa[0] instanceof InternetAddress)
+			return ((InternetAddress) fa[0]).getAddress();
+
+		InternetAddress local = InternetAddress.getLocalAddress( this.session );
+		if(local == null)
+			throw new MessagingException( "can't determine local email address" );
+		return local.getAddress();
+	}
+
+	/* Returns true if the envelope of message doesn't need MAIL FROM parameters. */
+	private boolean isPlainEnvelope(Message message){
+		if(message instanceof SMTPMessage)
+			return false;
+
+		for(Address a: this.envelope)
+			if(!(a instanceof InternetAddress) || ((InternetAddress) a).isGroup())
+				return false;
+
+		return this.session.getProperty( "mail.smtp.dsn.ret" ) == null
+				&& this.session.getProperty( "mail.smtp.dsn.notify" ) == null
+				&& this.session.getProperty( "mail.smtp.mailextension" ) == null
+				&& !"true".equalsIgnoreCase( this.session.getProperty( "mail.smtp.allow8bitmime" ) );
+	}
+
+	/* Starts to time a phase, if the transport is instrumented. */
+	private void startPhase(Phase p){
+		if(this.instrumentation != MailerInstrumentation.NOOP) {
+			this.phase = p;
+			this.phaseStart = System.nanoTime();
+		}
+	}
+
+	/* Ends the phase timed now, if there is one. */
+	private void endPhase(boolean success){
+		if(this.phase != null) {
+			this.instrumentation.phaseCompleted( this.phase, System.nanoTime() - this.phaseStart, success );
+			this.phase = null;
+		}
+	}
+
+	/* Ends the phase timed now with success and starts the next one. */
+	private void nextPhase(Phase p){
+		if(this.phase != null) {
+			this.endPhase( true );
+			this.startPhase( p );
+		}
+	}
+
+	/* Resets the mail transaction, so the connection can be reused. */
+	private void rset(){
+		try {
+			this.simpleCommand( "RSET" );
+		} catch(MessagingException e) {}
+	}
+
+//====================================================================================================//
+// INNER CLASS
+//====================================================================================================//
+	/* Counts the bytes of content written after DATA. */
+	private final class CountingStream extends FilterOutputStream
+	{
+		CountingStream(OutputStream out){
+			super( out );
+		}
+
+		@Override
+		public void write(int b) throws IOException{
+			this.out.write( b );
+			dataBytes++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException{
+			this.out.write( b, off, len );
+			dataBytes += len;
+		}
+	}
+}
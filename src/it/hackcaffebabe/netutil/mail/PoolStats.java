@@ -0,0 +1,93 @@
+package it.hackcaffebabe.netutil.mail;
+
+
+/**
+ * The state of the connection pool of {@link MailerManager} at the time it's read, see
+ * {@link MailerManager#getPoolStats()}.
+ *
+ * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
+ * @version 1.0
+ */
+public final class PoolStats
+{
+	private final int maxConnections, leased, idle, waiting;
+	private final long opened, closed, leaseTimeouts;
+
+	PoolStats(int maxConnections, int leased, int idle, int waiting, long opened, long closed, long leaseTimeouts){
+		this.maxConnections = maxConnections;
+		this.leased = leased;
+		this.idle = idle;
+		this.waiting = waiting;
+		this.opened = opened;
+		this.closed = closed;
+		this.leaseTimeouts = leaseTimeouts;
+	}
+
+//====================================================================================================//
+// GETTER
+//====================================================================================================//
+	/**
+	 * Returns the maximum number of connections, <code>mailer.pool.maxConnections</code>.
+	 * @return {@link Integer} the size of pool.
+	 */
+	public int getMaxConnections(){
+		return this.maxConnections;
+	}
+
+	/**
+	 * Returns the connections in use by a sender, or being opened for it.
+	 * @return {@link Integer} the leased connections.
+	 */
+	public int getLeased(){
+		return this.leased;
+	}
+
+	/**
+	 * Returns the connections open and waiting a sender.
+	 * @return {@link Integer} the idle connections.
+	 */
+	public int getIdle(){
+		return this.idle;
+	}
+
+	/**
+	 * Returns the threads waiting for a free connection.
+	 * @return {@link Integer} the waiting threads.
+	 */
+	public int getWaiting(){
+		return this.waiting;
+	}
+
+	/**
+	 * Returns the connections opened since login.
+	 * @return {@link Long} the connections opened.
+	 */
+	public long getOpened(){
+		return this.opened;
+	}
+
+	/**
+	 * Returns the connections closed since login.
+	 * @return {@link Long} the connections closed.
+	 */
+	public long getClosed(){
+		return this.closed;
+	}
+
+	/**
+	 * Returns how many times a thread gave up waiting for a free connection.
+	 * @return {@link Long} the lease timeouts.
+	 */
+	public long getLeaseTimeouts(){
+		return this.leaseTimeouts;
+	}
+
+//====================================================================================================//
+// OVERRIDE
+//====================================================================================================//
+	@Override
+	public String toString(){
+		return "max=" + this.maxConnections + " leased=" + this.leased + " idle=" + this.idle + " waiting=" + this.waiting
+				+ " opened=" + this.opened + " closed=" + this.closed + " leaseTimeouts=" + this.leaseTimeouts;
+	}
+}
@@ -0,0 +1,164 @@
+package it.hackcaffebabe.netutil.mail;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import it.hackcaffebabe.netutil.mail.TransportPool.PooledTransport;
+
+
+/**
+ * <p>
+ * Sends messages over one connection leased from a {@link TransportPool} and kept between the messages.<br>
+ * The connection is replaced when it reaches the message cap of pool or when it breaks, and is given back
+ * to the pool with {@link #release()}.<br>
+ * Each message waits the rate limits of its user and recipient domains before it's sent, and its outcome is told
+ * to the {@link MailerInstrumentation} of pool.<br>
+ * This object is not thread safe: each thread that sends MUST use its own sender.
+ * </p>
+ *
+ * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
+ * @version 1.0
+ */
+final class PooledSender
+{
+	private final TransportPool pool;
+	private final RateLimiter limiter;
+	private PooledTransport t;
+
+	/**
+	 * Instance a sender that leases the connections from pool given.
+	 * @param pool {@link TransportPool} the pool of connections.
+	 * @param limiter {@link RateLimiter} the limiter that paces the messages.
+	 */
+	PooledSender(TransportPool pool, RateLimiter limiter){
+		this.pool = pool;
+		this.limiter = limiter;
+	}
+
+//====================================================================================================//
+// METHOD
+//====================================================================================================//
+	/**
+	 * Sends a message and returns the outcome, this method doesn't throw on failure.
+	 * @param message {@link SimpleMessage} the message to send.
+	 * @return {@link SendResult} the outcome of message.
+	 */
+	SendResult send(SimpleMessage message){
+		if(message == null)
+			return new SendResult( null, null, new MessagingException( "Message to send can not be null." ) );
+
+		Address[] recipients;
+		try {
+			recipients = prepare( message );
+		} catch(MessagingException e) {
+			this.pool.getInstrumentation().messageFailed( e );
+			return new SendResult( message, null, e );
+		}
+		return this.send( message, recipients );
+	}
+
+	/**
+	 * Sends a message already saved to the recipients given, that can be different from the recipients of
+	 * its headers. This method doesn't throw on failure.
+	 * @param message {@link SimpleMessage} the message to send, {@link SimpleMessage#saveChanges()} already called.
+	 * @param recipients {@link Address} array of the envelope recipients.
+	 * @return {@link SendResult} the outcome of message, with the envelope recipients.
+	 */
+	SendResult send(SimpleMessage message, Address[] recipients){
+		MailerInstrumentation i = this.pool.getInstrumentation();
+		try {
+			this.limiter.acquire( this.pool.getUser(), recipients );
+		} catch(MessagingException e) {
+			i.messageFailed( e );
+			return new SendResult( message, recipients, null, e );
+		}
+
+		SendResult result;
+		try {
+			if(this.t == null)
+				this.t = this.pool.lease();
+			this.t.transport.sendMessage( message, recipients );
+			this.t.sent++;
+			result = new SendResult( message, recipients, this.t.transport.getRejectedRecipients(), null );
+			i.messageSent( recipients.length - result.getRejectedRecipients().length, this.t.transport.getDataBytes() );
+		} catch(SendFailedException e) {
+			Address[] delivered = e.getValidSentAddresses();
+			if(delivered != null && delivered.length > 0) {
+				// mail.smtp.sendpartial without pipelining: delivered to the accepted recipients, like the pipelined path
+				this.t.sent++;
+				result = new SendResult( message, recipients, concat( e.getInvalidAddresses(), e.getValidUnsentAddresses() ), null );
+				i.messageSent( delivered.length, this.t.transport.getDataBytes() );
+			} else {
+				// rejected by server: the connection is still good if it's alive
+				result = new SendResult( message, recipients, e.getInvalidAddresses(), e );
+				i.messageFailed( e );
+			}
+			if(this.t != null && !this.t.transport.isConnected())
+				this.discard();
+		} catch(MessagingException e) {
+			// connection broken or lease failed: the next message opens a new connection
+			result = new SendResult( message, recipients, null, e );
+			i.messageFailed( e );
+			this.discard();
+		}
+
+		if(this.t != null && this.pool.isExhausted( this.t ))
+			this.release();
+		return result;
+	}
+
+	/**
+	 * Gives back the connection held, if there is one.
+	 */
+	void release(){
+		this.pool.release( this.t, true );
+		this.t = null;
+	}
+
+	/* Closes the connection held, it's in a unknown state. */
+	private void discard(){
+		this.pool.release( this.t, false );
+		this.t = null;
+	}
+
+	/* Returns the addresses of both arrays, that can be null. */
+	private static Address[] concat(Address[] a, Address[] b){
+		if(a == null || a.length == 0)
+			return b;
+		if(b == null || b.length == 0)
+			return a;
+
+		Address[] all = new Address[a.length + b.length];
+		System.arraycopy( a, 0, all, 0, a.length );
+		System.arraycopy( b, 0, all, a.length, b.length );
+		return all;
+	}
+
+	/* Saves the message changes and returns its recipients. */
+	private static Address[] prepare(SimpleMessage message) throws MessagingException{
+		message.saveChanges();
+		Address[] recipients = message.getAllRecipients();
+		if(recipients == null || recipients.length == 0)
+			throw new SendFailedException( "No recipient addresses" );
+		return recipients;
+	}
+
+//====================================================================================================//
+// GETTER
+//====================================================================================================//
+	/**
+	 * Returns the pool of this sender.
+	 * @return {@link TransportPool} the pool of connections.
+	 */
+	TransportPool getPool(){
+		return this.pool;
+	}
+
+	/**
+	 * Returns true if this sender is holding a connection.
+	 * @return {@link Boolean} true if a connection is leased.
+	 */
+	boolean isHolding(){
+		return this.t != null;
+	}
+}
@@ -0,0 +1,91 @@
+package it.hackcaffebabe.netutil.mail;
+
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.mail.Address;
+import javax.mail.MessagingException;
+
+
+/**
+ * <p>
+ * Paces the messages sent by {@link MailerManager} just below the limits of the relay.<br>
+ * There is a {@link TokenBucket} for each login user and one for each recipient domain, a message takes a token
+ * from the bucket of its user and from the buckets of all its recipient domains before it's sent.
+ * </p>
+ * The limits are read from the mail configuration, a missing rate means no limit:
+ * <pre>
+ * mailer.rate.user.messagesPerSecond=10
+ * mailer.rate.user.burst=20
+ * mailer.rate.domain.messagesPerSecond=5
+ * mailer.rate.domain.burst=5
+ * #A single domain can have its own limit
+ * mailer.rate.domain.example.com.messagesPerSecond=1
+ * mailer.rate.domain.example.com.burst=1
+ * </pre>
+ *
+ * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
+ * @version 1.0
+ */
+final class RateLimiter
+{
+	private static final String USER = "mailer.rate.user.", DOMAIN = "mailer.rate.domain.";
+	private static final String RATE = "messagesPerSecond", BURST = "burst";
+	/**Marker of a key without limit*/
+	private static final TokenBucket UNLIMITED = new TokenBucket( 1.0, 1 );
+
+	private final Properties properties;
+	private final ConcurrentMap<String, TokenBucket> users = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, TokenBucket> domains = new ConcurrentHashMap<>();
+
+	/**
+	 * Instance a limiter with the limits of the mail configuration given.
+	 * @param properties {@link Properties} the mail configuration.
+	 */
+	RateLimiter(Properties properties){
+		this.properties = properties;
+	}
+
+//====================================================================================================//
+// METHOD
+//====================================================================================================//
+	/**
+	 * Waits until the message can be sent by the user to all the recipients given.
+	 * @param user {@link String} the login user.
+	 * @param recipients {@link Address} array of message recipients.
+	 * @throws MessagingException if the thread is interrupted while waiting.
+	 */
+	void acquire(String user, Address[] recipients) throws MessagingException{
+		try {
+			acquire( this.getBucket( this.users, USER, user ) );
+			for(String domain: NetUser.getDomains( recipients ))
+				acquire( this.getBucket( this.domains, DOMAIN, domain ) );
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MessagingException( "Interrupted while waiting the send rate.", e );
+		}
+	}
+
+	private static void acquire(TokenBucket bucket) throws InterruptedException{
+		if(bucket != UNLIMITED)
+			bucket.acquire();
+	}
+
+	/* Returns the bucket of key, creating it with the limit of key or with the default limit. */
+	private TokenBucket getBucket(ConcurrentMap<String, TokenBucket> buckets, String prefix, String key){
+		TokenBucket b = buckets.get( key );
+		if(b != null)
+			return b;
+
+		double rate = MailerConfig.getDouble( this.properties, prefix + key + "." + RATE, -1.0 );
+		int burst = MailerConfig.getInt( this.properties, prefix + key + "." + BURST, -1 );
+		if(rate < 0)
+			rate = MailerConfig.getDouble( this.properties, prefix + RATE, 0.0 );
+		if(burst < 0)
+			burst = MailerConfig.getInt( this.properties, prefix + BURST, 1 );
+
+		TokenBucket created = rate > 0 ? new TokenBucket( rate, burst ) : UNLIMITED;
+		b = buckets.putIfAbsent( key, created );
+		return b == null ? created : b;
+	}
+}
@@ -0,0 +1,149 @@
+package it.hackcaffebabe.netutil.mail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.mail.internet.AddressException;
+import javax.mail.internet.InternetAddress;
+
+
+/**
+ * <p>
+ * Plans the SMTP envelopes of one message sent to many recipients.<br>
+ * The recipients are grouped by domain, ignoring the case, and the same recipient is kept once. Each group is
+ * split into the fewest envelopes with at most the maximum recipients accepted by the server in one transaction,
+ * so the message data is sent once for each envelope instead of once for each recipient.
+ * </p>
+ * Use it like this:
+ * <pre>
+ * RecipientPlanner planner = new RecipientPlanner( 100 );
+ * for(RecipientPlanner.Envelope e: planner.plan( recipients ))
+ *     transport.sendMessage( message, e.getAddresses() );
+ * </pre>
+ *
+ * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
+ * @version 1.0
+ */
+public final class RecipientPlanner
+{
+	private final int maxRecipients;
+
+	/**
+	 * Instance a planner of envelopes.
+	 * @param maxRecipients {@link Integer} maximum number of RCPT TO commands in one transaction.
+	 * @throws IllegalArgumentException if maxRecipients is not greater than zero.
+	 */
+	public RecipientPlanner(int maxRecipients) throws IllegalArgumentException{
+		if(maxRecipients <= 0)
+			throw new IllegalArgumentException( "Maximum recipients must be greater than zero." );
+		this.maxRecipients = maxRecipients;
+	}
+
+//====================================================================================================//
+// METHOD
+//====================================================================================================//
+	/**
+	 * Returns the envelopes of recipients given, in order of first recipient of each domain.
+	 * @param recipients {@link Iterable} of {@link NetUser} to plan.
+	 * @return {@link List} of {@link Envelope}, empty if there are no recipients.
+	 * @throws IllegalArgumentException if recipients or one of them are null.
+	 */
+	public List<Envelope> plan(Iterable<NetUser> recipients) throws IllegalArgumentException{
+		if(recipients == null)
+			throw new IllegalArgumentException( "Recipients to plan can not be null." );
+
+		Map<String, Set<NetUser>> domains = new LinkedHashMap<>();
+		for(NetUser r: recipients) {
+			if(r == null || r.getEmail() == null)
+				throw new IllegalArgumentException( "Recipient can not be null." );
+
+			String domain = r.getDomain().toLowerCase();
+			Set<NetUser> group = domains.get( domain );
+			if(group == null) {
+				group = new LinkedHashSet<>();
+				domains.put( domain, group );
+			}
+			group.add( r );
+		}
+
+		List<Envelope> envelopes = new ArrayList<>();
+		for(Map.Entry<String, Set<NetUser>> group: domains.entrySet()) {
+			List<NetUser> chunk = new ArrayList<>( Math.min( group.getValue().size(), this.maxRecipients ) );
+			for(NetUser r: group.getValue()) {
+				chunk.add( r );
+				if(chunk.size() == this.maxRecipients) {
+					envelopes.add( new Envelope( group.getKey(), chunk ) );
+					chunk = new ArrayList<>();
+				}
+			}
+			if(!chunk.isEmpty())
+				envelopes.add( new Envelope( group.getKey(), chunk ) );
+		}
+		return envelopes;
+	}
+
+//====================================================================================================//
+// GETTER
+//====================================================================================================//
+	/**
+	 * Returns the maximum number of recipients of one envelope.
+	 * @return {@link Integer} the maximum recipients.
+	 */
+	public int getMaxRecipients(){
+		return this.maxRecipients;
+	}
+
+//====================================================================================================//
+// INNER CLASS
+//====================================================================================================//
+	/**
+	 * The recipients of one domain sent in the same SMTP transaction.
+	 */
+	public static final class Envelope
+	{
+		private final String domain;
+		private final List<NetUser> recipients;
+
+		private Envelope(String domain, List<NetUser> recipients){
+			this.domain = domain;
+			this.recipients = Collections.unmodifiableList( recipients );
+		}
+
+		/**
+		 * Returns the lower case domain of recipients.
+		 * @return {@link String} the domain.
+		 */
+		public String getDomain(){
+			return this.domain;
+		}
+
+		/**
+		 * Returns the recipients of envelope.
+		 * @return {@link List} of {@link NetUser} not modifiable.
+		 */
+		public List<NetUser> getRecipients(){
+			return this.recipients;
+		}
+
+		/**
+		 * Returns the recipients as addresses for the transport.
+		 * @return {@link InternetAddress} array of recipients.
+		 * @throws AddressException if a recipient is not a valid address.
+		 */
+		public InternetAddress[] getAddresses() throws AddressException{
+			InternetAddress[] addresses = new InternetAddress[this.recipients.size()];
+			for(int i = 0; i < addresses.length; i++)
+				addresses[i] = new InternetAddress( this.recipients.get( i ).getEmail() );
+			return addresses;
+		}
+
+		@Override
+		public String toString(){
+			return this.domain + this.recipients;
+		}
+	}
+}
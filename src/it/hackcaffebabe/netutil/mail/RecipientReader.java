@@ -0,0 +1,304 @@
+package it.hackcaffebabe.netutil.mail;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+
+/**
+ * <p>
+ * Reads a list of recipients one at time, so lists of any size can be read with the same memory.<br>
+ * The entries are separated by ';', ',' or line breaks, the blanks around them and the blank entries are
+ * ignored. A entry that is not a valid {@link NetUser} doesn't stop the reading: it's given to the
+ * {@link InvalidListener} set and skipped. Entries longer than {@value #MAX_ENTRY} chars are always invalid.<br>
+ * The recipients can be read as {@link Iterator}, as {@link Stream} or with a callback using
+ * {@link #forEachRemaining(java.util.function.Consumer)}. This object is not thread safe.
+ * </p>
+ * Use it like this:
+ * <pre>
+ * try (RecipientReader r = new RecipientReader( new FileReader( "list.txt" ) )) {
+ *     r.setInvalidListener( listener );
+ *     while( r.hasNext() )
+ *         recipients.add( r.next() );
+ * }
+ * </pre>
+ *
+ * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
+ * @version 1.0
+ */
+public class RecipientReader implements Iterator<NetUser>, Closeable
+{
+	/**Maximum chars of one entry*/
+	public static final int MAX_ENTRY = 1024;
+	private static final String SEPARATORS = ";,\r\n";
+	private static final InvalidListener IGNORE = new InvalidListener(){
+		@Override
+		public void onInvalid(String entry, long line, String reason){}
+	};
+
+	private final Reader in;
+	private final String separators;
+	private final boolean blanks;
+	private final int maxEntry;
+	private final char[] buffer = new char[8192];
+	private int position, limit;
+	private boolean eof;
+	/**Chars of current entry, never more than maxEntry*/
+	private final StringBuilder entry = new StringBuilder( 64 );
+	private long line = 1, entryLine;
+	private InvalidListener listener = IGNORE;
+
+	private NetUser next;
+	private long valid, invalid;
+
+	/**
+	 * Instance a reader of recipients from the reader given.
+	 * @param in {@link Reader} the list of recipients.
+	 * @throws IllegalArgumentException if reader is null.
+	 */
+	public RecipientReader(Reader in) throws IllegalArgumentException{
+		this( in, SEPARATORS, false, MAX_ENTRY );
+	}
+
+	/**
+	 * Instance a reader of recipients from the channel given.<br>
+	 * The bytes that can not be decoded are replaced, so their entries are invalid.
+	 * @param channel {@link ReadableByteChannel} the list of recipients.
+	 * @param charset {@link Charset} the charset of list.
+	 * @throws IllegalArgumentException if channel or charset are null.
+	 */
+	public RecipientReader(ReadableByteChannel channel, Charset charset) throws IllegalArgumentException{
+		this( newReader( channel, charset ), SEPARATORS, false, MAX_ENTRY );
+	}
+
+	/*
+	 * Reader with custom separators and maximum chars of entry, that can report the blank entries as invalid. Used by
+	 * SimpleMessage.parseEmails, that has the whole list in memory and accepts emails of any length.
+	 */
+	RecipientReader(Reader in, String separators, boolean blanks, int maxEntry) throws IllegalArgumentException{
+		if(in == null)
+			throw new IllegalArgumentException( "Reader of recipients can not be null." );
+		this.in = in;
+		this.separators = separators;
+		this.blanks = blanks;
+		this.maxEntry = maxEntry;
+	}
+
+//====================================================================================================//
+// METHOD
+//====================================================================================================//
+	/**
+	 * Returns true if there is another valid recipient, the invalid entries found before it are given to the
+	 * listener.
+	 * @return {@link Boolean} true if {@link #next()} returns a recipient.
+	 * @throws UncheckedIOException if the list can not be read.
+	 */
+	@Override
+	public boolean hasNext() throws UncheckedIOException{
+		if(this.next == null) {
+			try {
+				this.next = this.advance();
+			} catch(IOException e) {
+				throw new UncheckedIOException( e );
+			}
+		}
+		return this.next != null;
+	}
+
+	/**
+	 * Returns the next valid recipient.
+	 * @return {@link NetUser} the recipient.
+	 * @throws NoSuchElementException if there are no more recipients.
+	 * @throws UncheckedIOException if the list can not be read.
+	 */
+	@Override
+	public NetUser next() throws NoSuchElementException, UncheckedIOException{
+		if(!this.hasNext())
+			throw new NoSuchElementException( "No more recipients." );
+
+		NetUser n = this.next;
+		this.next = null;
+		return n;
+	}
+
+	/**
+	 * Returns a sequential stream of the recipients not read yet, closing the stream closes this reader.
+	 * @return {@link Stream} of {@link NetUser}.
+	 */
+	public Stream<NetUser> stream(){
+		Spliterator<NetUser> s = Spliterators.spliteratorUnknownSize( this, Spliterator.ORDERED | Spliterator.NONNULL );
+		return StreamSupport.stream( s, false ).onClose( new Runnable(){
+			@Override
+			public void run(){
+				try {
+					close();
+				} catch(IOException e) {
+					throw new UncheckedIOException( e );
+				}
+			}
+		} );
+	}
+
+	@Override
+	public void close() throws IOException{
+		this.next = null;
+		this.eof = true;
+		this.in.close();
+	}
+
+	/* Returns the next valid recipient or null at the end of list. */
+	private NetUser advance() throws IOException{
+		int length;
+		while( (length = this.readEntry()) >= 0 ) {
+			if(length > this.maxEntry) {
+				this.reject( this.entry.toString(), "Entry longer than " + this.maxEntry + " chars." );
+				continue;
+			}
+
+			String email = trim( this.entry );
+			if(email.isEmpty() && !this.blanks)
+				continue;
+			try {
+				NetUser user = new NetUser( email );
+				this.valid++;
+				return user;
+			} catch(IllegalArgumentException e) {
+				this.reject( email, e.getMessage() );
+			}
+		}
+		return null;
+	}
+
+	/*
+	 * Returns the next not blank entry without validating it, or null at the end of list. The entries longer
+	 * than maxEntry are given to the listener and skipped. Used by BulkValidator, that validates them in parallel.
+	 */
+	String nextEntry() throws IOException{
+		int length;
+		while( (length = this.readEntry()) >= 0 ) {
+			if(length > this.maxEntry) {
+				this.reject( this.entry.toString(), "Entry longer than " + this.maxEntry + " chars." );
+				continue;
+			}
+
+			String email = trim( this.entry );
+			if(!email.isEmpty())
+				return email;
+		}
+		return null;
+	}
+
+	/* Reads the chars until the next separator into entry, returns the length of entry or -1 at the end of list. */
+	private int readEntry() throws IOException{
+		this.entry.setLength( 0 );
+		int length = 0;
+		while( true ) {
+			if(this.position == this.limit) {
+				int n = this.eof ? -1 : this.in.read( this.buffer );
+				if(n < 0) {
+					this.eof = true;
+					this.position = this.limit = 0;
+					return length > 0 ? length : -1;
+				}
+				this.position = 0;
+				this.limit = n;
+			}
+
+			char c = this.buffer[this.position++];
+			boolean separator = this.separators.indexOf( c ) >= 0;
+			if(!separator) {
+				if(length == 0)
+					this.entryLine = this.line;
+				if(length < this.maxEntry)
+					this.entry.append( c );
+				if(length <= this.maxEntry)
+					length++;
+			}
+			if(c == '\n')
+				this.line++;
+			if(separator && length > 0)
+				return length;
+		}
+	}
+
+	private void reject(String entry, String reason){
+		this.invalid++;
+		this.listener.onInvalid( entry, this.entryLine, reason );
+	}
+
+	/* Same of s.toString().trim() */
+	private static String trim(CharSequence s){
+		int start = 0, end = s.length();
+		while( start < end && s.charAt( start ) <= ' ' )
+			start++;
+		while( end > start && s.charAt( end - 1 ) <= ' ' )
+			end--;
+		return s.subSequence( start, end ).toString();
+	}
+
+	private static Reader newReader(ReadableByteChannel channel, Charset charset) throws IllegalArgumentException{
+		if(channel == null || charset == null)
+			throw new IllegalArgumentException( "Channel and charset can not be null." );
+
+		return Channels.newReader( channel, charset.newDecoder().onMalformedInput( CodingErrorAction.REPLACE )
+				.onUnmappableCharacter( CodingErrorAction.REPLACE ), -1 );
+	}
+
+//====================================================================================================//
+// GETTER
+//====================================================================================================//
+	/**
+	 * Returns the number of valid recipients read until now.
+	 * @return {@link Long} the valid recipients.
+	 */
+	public long getValidCount(){
+		return this.valid;
+	}
+
+	/**
+	 * Returns the number of invalid entries skipped until now.
+	 * @return {@link Long} the invalid entries.
+	 */
+	public long getInvalidCount(){
+		return this.invalid;
+	}
+
+//====================================================================================================//
+// SETTER
+//====================================================================================================//
+	/**
+	 * Sets the listener of invalid entries, by default they are only counted.
+	 * @param listener {@link InvalidListener} the listener, null to ignore the invalid entries.
+	 */
+	public void setInvalidListener(InvalidListener listener){
+		this.listener = listener == null ? IGNORE : listener;
+	}
+
+//====================================================================================================//
+// INNER CLASS
+//====================================================================================================//
+	/**
+	 * Listener of the entries that are not valid recipients.
+	 */
+	public interface InvalidListener
+	{
+		/**
+		 * Called for each invalid entry, in order of list.
+		 * @param entry {@link String} the entry without the blanks around it, cut at {@value RecipientReader#MAX_ENTRY} chars.
+		 * @param line {@link Long} the line of list where the entry starts, from 1.
+		 * @param reason {@link String} why the entry is not valid.
+		 */
+		void onInvalid(String entry, long line, String reason);
+	}
+}
@@ -0,0 +1,319 @@
+package it.hackcaffebabe.netutil.mail;
+
+import java.util.LinkedHashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import com.sun.mail.smtp.SMTPSenderFailedException;
+
+
+/**
+ * <p>
+ * Class that sends the email with {@link MailerManager#sendAsync(SimpleMessage)} and tries again the transient failures.<br>
+ * The SMTP replies 4xx and the connection errors are transient: the message is scheduled again with an exponential
+ * backoff with jitter. The replies 5xx are permanent and the message is not tried again.<br>
+ * Each recipient domain ( see {@link NetUser#getDomain()} ) has a circuit breaker: when a domain keeps failing its
+ * messages wait into the timer, without using the workers of {@link MailerManager}, until the circuit lets a trial through.<br>
+ * The attempts run by the timer never wait a free slot of the dispatcher queue: a message refused because the queue
+ * is full is scheduled again with the same backoff, and it counts as a failed attempt only when it's refused for
+ * <code>mailer.dispatch.offerTimeout</code>, as the caller of {@link MailerManager#sendAsync(SimpleMessage)} that waits.
+ * </p>
+ * Use it like this:
+ * <pre>
+ * RetryScheduler retry = new RetryScheduler( mailer );
+ * retry.submit( message ).thenAccept( r -&gt; { if( !r.isSent() ) log( r.getException() ); } );
+ * </pre>
+ * The scheduler reads this optional keys from the mail configuration ( times in milliseconds ):
+ * <pre>
+ * mailer.retry.maxAttempts=5
+ * mailer.retry.initialDelay=1000
+ * mailer.retry.maxDelay=300000
+ * mailer.retry.circuit.failureThreshold=5
+ * mailer.retry.circuit.openTime=60000
+ * </pre>
+ *
+ * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
+ * @version 1.0
+ */
+public class RetryScheduler
+{
+	/**Kind of a failure*/
+	enum Failure { TRANSIENT, PERMANENT }
+
+	private final MailerManager mailer;
+	private final int maxAttempts, failureThreshold;
+	private final long initialDelay, maxDelay, openTime, offerTimeout;
+
+	private final TimerWheel timer = new TimerWheel( 50L, "mailer-retry" );
+	private final ConcurrentMap<String, CircuitBreaker> circuits = new ConcurrentHashMap<>();
+	private final Set<Attempt> pending = ConcurrentHashMap.newKeySet();
+	private volatile boolean running = true;
+
+	/**
+	 * Instance a scheduler that sends with the mailer given, reading the retry keys from its configuration.
+	 * @param mailer {@link MailerManager} the mailer that sends the email.
+	 * @throws IllegalArgumentException if mailer is null or one of retry keys is not valid.
+	 */
+	public RetryScheduler(MailerManager mailer) throws IllegalArgumentException{
+		if(mailer == null)
+			throw new IllegalArgumentException( "Mailer can not be null." );
+
+		this.mailer = mailer;
+		Properties p = mailer.getProperties();
+		this.maxAttempts = Math.max( 1, MailerConfig.getInt( p, MailerConfig.RETRY_MAX_ATTEMPTS, 5 ) );
+		this.initialDelay = Math.max( 1L, MailerConfig.getLong( p, MailerConfig.RETRY_INITIAL_DELAY, 1000L ) );
+		this.maxDelay = Math.max( this.initialDelay, MailerConfig.getLong( p, MailerConfig.RETRY_MAX_DELAY, 300000L ) );
+		this.failureThreshold = MailerConfig.getInt( p, MailerConfig.RETRY_CIRCUIT_THRESHOLD, 5 );
+		this.openTime = MailerConfig.getLong( p, MailerConfig.RETRY_CIRCUIT_OPEN_TIME, 60000L );
+		this.offerTimeout = TimeUnit.MILLISECONDS.toNanos( MailerConfig.getLong( p, MailerConfig.DISPATCH_OFFER_TIMEOUT, 30000L ) );
+	}
+
+//====================================================================================================//
+// METHOD
+//====================================================================================================//
+	/**
+	 * Sends the email, trying again the transient failures.
+	 * @param message {@link SimpleMessage} the email to send.
+	 * @return {@link CompletableFuture} completed with the last {@link SendResult} of message: sent, failed
+	 *         permanently or failed after the maximum number of attempts.
+	 * @throws IllegalArgumentException if message is null.
+	 * @throws MessagingException if the scheduler is shut down or the recipients can not be read.
+	 */
+	public CompletableFuture<SendResult> submit(SimpleMessage message) throws IllegalArgumentException, MessagingException{
+		if(message == null)
+			throw new IllegalArgumentException( "Message to send can not be null." );
+
+		if(!this.running)
+			throw new MessagingException( "Retry scheduler is shut down." );
+
+		Attempt a = new Attempt( message, NetUser.getDomains( message.getAllRecipients() ) );
+		this.pending.add( a );
+		this.attempt( a, true );
+		return a.future;
+	}
+
+	/**
+	 * Returns true if the circuit of domain given is open, so its messages are held.
+	 * @param domain {@link String} the recipient domain.
+	 * @return {@link Boolean} true if the circuit is open or half open.
+	 */
+	public boolean isCircuitOpen(String domain){
+		CircuitBreaker c = domain == null ? null : this.circuits.get( domain.toLowerCase() );
+		return c != null && c.isOpen();
+	}
+
+	/**
+	 * Returns the number of email submitted and not completed yet, sending or waiting the next attempt.
+	 * @return {@link Integer} the pending email.
+	 */
+	public int getPendingCount(){
+		return this.pending.size();
+	}
+
+	/**
+	 * Stops the timer, the email still waiting are completed exceptionally.
+	 */
+	public void shutdown(){
+		this.running = false;
+		this.timer.stop();
+		for(Attempt a: this.pending)
+			this.finish( a, null, new MessagingException( "Retry scheduler is shut down." ) );
+	}
+
+	/**
+	 * Returns if a failure is transient or permanent.<br>
+	 * The SMTP replies 4xx are transient and 5xx permanent; the errors without reply code, like connection
+	 * errors, are transient except a refused envelope without codes ( like a message without recipients ).
+	 * @param e {@link MessagingException} the failure.
+	 * @return {@link Failure} the kind of failure.
+	 */
+	static Failure classify(MessagingException e){
+		int code = getReturnCode( e );
+		if(code == 0 && e instanceof SendFailedException) {
+			// the codes of refused recipients are into the chain
+			Exception next = e.getNextException();
+			while( next instanceof MessagingException ) {
+				int c = getReturnCode( (MessagingException) next );
+				if(c / 100 == 4)
+					return Failure.TRANSIENT;
+				if(c != 0)
+					code = c;
+				next = ((MessagingException) next).getNextException();
+			}
+			return code / 100 == 4 ? Failure.TRANSIENT : Failure.PERMANENT;
+		}
+		return code / 100 == 5 ? Failure.PERMANENT : Failure.TRANSIENT;
+	}
+
+	/*
+	 * Sends the message if the circuits of its domains are closed, otherwise waits the circuits. Only the caller of
+	 * submit can wait a free slot of the dispatcher queue, the timer thread runs all the timeouts and can not block.
+	 */
+	private void attempt(final Attempt a, boolean block){
+		if(!this.running)
+			return;
+
+		long wait = 0L;
+		Set<CircuitBreaker> acquired = new LinkedHashSet<>();
+		for(String domain: a.domains) {
+			CircuitBreaker c = this.getCircuit( domain );
+			long w = c.acquire();
+			if(w == 0L)
+				acquired.add( c );
+			wait = Math.max( wait, w );
+		}
+
+		if(wait > 0L) {
+			for(CircuitBreaker c: acquired)
+				c.onSkip();
+			this.schedule( a, wait );
+			return;
+		}
+
+		a.attempts++;
+		CompletableFuture<SendResult> f;
+		try {
+			f = this.mailer.sendAsync( a.message, block );
+		} catch(MessagingException e) {
+			f = new CompletableFuture<>();
+			f.complete( new SendResult( a.message, null, e ) );
+		}
+
+		f.whenComplete( (result, error) -> {
+			if(error != null) {
+				// refused by the dispatcher queue: not a fault of the domains
+				MessagingException e = error instanceof MessagingException ? (MessagingException) error
+						: new MessagingException( error.getMessage(), error instanceof Exception ? (Exception) error : null );
+				for(CircuitBreaker c: acquired)
+					c.onSkip();
+				this.onRejected( a, new SendResult( a.message, null, e ), block );
+				return;
+			}
+
+			a.rejections = 0;
+			if(result.isSent()) {
+				for(CircuitBreaker c: acquired)
+					c.onSuccess();
+				this.finish( a, result, null );
+			} else {
+				Failure kind = classify( result.getException() );
+				this.onDomainFailure( a, result, kind );
+				this.onFailure( a, result, kind );
+			}
+		} );
+	}
+
+	/* Updates the circuits: a transient failure is charged to the domains of refused recipients, or to all domains. */
+	private void onDomainFailure(Attempt a, SendResult result, Failure kind){
+		Set<String> failed = NetUser.getDomains( result.getRejectedRecipients() );
+		for(String domain: a.domains) {
+			CircuitBreaker c = this.getCircuit( domain );
+			if(kind == Failure.TRANSIENT && (failed.isEmpty() || failed.contains( domain )))
+				c.onFailure();
+			else
+				c.onSuccess();
+		}
+	}
+
+	/* Schedules again a transient failure or completes the message. */
+	private void onFailure(Attempt a, SendResult result, Failure kind){
+		if(kind == Failure.PERMANENT || a.attempts >= this.maxAttempts) {
+			this.finish( a, result, null );
+			return;
+		}
+		this.mailer.getInstrumentation().messageRetried( a.attempts );
+		this.schedule( a, this.backoff( a.attempts ) );
+	}
+
+	/*
+	 * Schedules again a message refused by the dispatcher without counting the attempt. It's a transient failure
+	 * if the caller already waited the queue, or if it's refused since the offer timeout.
+	 */
+	private void onRejected(Attempt a, SendResult result, boolean waited){
+		long now = System.nanoTime();
+		if(a.rejections++ == 0)
+			a.rejectedSince = now;
+		if(waited || now - a.rejectedSince >= this.offerTimeout) {
+			a.rejections = 0;
+			this.onFailure( a, result, Failure.TRANSIENT );
+			return;
+		}
+		a.attempts--;
+		this.schedule( a, this.backoff( a.rejections ) );
+	}
+
+	/* Returns the delay before the attempt given: exponential with jitter, between half and all of the delay. */
+	private long backoff(int attempts){
+		int shift = Math.min( attempts - 1, 30 );
+		long delay = this.initialDelay > (this.maxDelay >> shift) ? this.maxDelay : this.initialDelay << shift;
+
+		long half = delay / 2;
+		return half + ThreadLocalRandom.current().nextLong( delay - half + 1 );
+	}
+
+	private void schedule(final Attempt a, long delay){
+		this.timer.schedule( new Runnable(){
+			@Override
+			public void run(){
+				attempt( a, false );
+			}
+		}, delay, TimeUnit.MILLISECONDS );
+	}
+
+	private void finish(Attempt a, SendResult result, MessagingException error){
+		this.pending.remove( a );
+		if(error != null)
+			a.future.completeExceptionally( error );
+		else
+			a.future.complete( result );
+	}
+
+	private CircuitBreaker getCircuit(String domain){
+		CircuitBreaker c = this.circuits.get( domain );
+		if(c == null) {
+			CircuitBreaker created = new CircuitBreaker( this.failureThreshold, this.openTime );
+			c = this.circuits.putIfAbsent( domain, created );
+			if(c == null)
+				c = created;
+		}
+		return c;
+	}
+
+	private static int getReturnCode(MessagingException e){
+		if(e instanceof SMTPSendFailedException)
+			return ((SMTPSendFailedException) e).getReturnCode();
+		if(e instanceof SMTPAddressFailedException)
+			return ((SMTPAddressFailedException) e).getReturnCode();
+		if(e instanceof SMTPSenderFailedException)
+			return ((SMTPSenderFailedException) e).getReturnCode();
+		return 0;
+	}
+
+//====================================================================================================//
+// INNER CLASS
+//====================================================================================================//
+	/* A message with its attempts. */
+	private static final class Attempt
+	{
+		final SimpleMessage message;
+		final Set<String> domains;
+		final CompletableFuture<SendResult> future = new CompletableFuture<>();
+		int attempts;
+		/**Refusals of the dispatcher in a row, and the time of first one in nanoseconds*/
+		int rejections;
+		long rejectedSince;
+
+		Attempt(SimpleMessage message, Set<String> domains){
+			this.message = message;
+			this.domains = domains;
+		}
+	}
+}
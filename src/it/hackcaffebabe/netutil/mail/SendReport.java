@@ -0,0 +1,82 @@
+package it.hackcaffebabe.netutil.mail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+
+/**
+ * <p>
+ * Simple class that collects the {@link SendResult} of a batch of messages, in the same order of the batch.<br>
+ * Use it like this after {@link MailerManager#sendAll(java.util.Collection)}:
+ * <pre>
+ * SendReport report = mailer.sendAll( messages );
+ * for( SendResult r : report )
+ *     if( !r.isSent() ) log( r.getMessage(), r.getException() );
+ * </pre>
+ * </p>
+ *
+ * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
+ * @version 1.0
+ */
+public final class SendReport implements Iterable<SendResult>
+{
+	private final List<SendResult> results;
+	private int sent;
+
+	/* Instance a empty report with the expected size of batch. */
+	SendReport(int size){
+		this.results = new ArrayList<>( size );
+	}
+
+//====================================================================================================//
+// METHOD
+//====================================================================================================//
+	/* Adds the result of next message in the batch. */
+	void add(SendResult result){
+		this.results.add( result );
+		if(result.isSent())
+			this.sent++;
+	}
+
+//====================================================================================================//
+// GETTER
+//====================================================================================================//
+	/**
+	 * Returns all the results in the same order of the batch.
+	 * @return {@link List} of {@link SendResult} not modifiable.
+	 */
+	public List<SendResult> getResults(){
+		return Collections.unmodifiableList( this.results );
+	}
+
+	/**
+	 * Returns the number of messages accepted by the server.
+	 * @return {@link Integer} the number of messages sent.
+	 */
+	public int getSentCount(){
+		return this.sent;
+	}
+
+	/**
+	 * Returns the number of messages not sent.
+	 * @return {@link Integer} the number of failed messages.
+	 */
+	public int getFailedCount(){
+		return this.results.size() - this.sent;
+	}
+
+//====================================================================================================//
+// OVERRIDE
+//====================================================================================================//
+	@Override
+	public Iterator<SendResult> iterator(){
+		return this.getResults().iterator();
+	}
+
+	@Override
+	public String toString(){
+		return this.sent + " sent, " + this.getFailedCount() + " failed";
+	}
+}
@@ -0,0 +1,104 @@
+package it.hackcaffebabe.netutil.mail;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+
+
+/**
+ * <p>
+ * Simple class that describes the outcome of sending one {@link SimpleMessage}.<br>
+ * A message is sent if the server accepted it for at least one recipient: the recipients
+ * rejected by the server are returned by {@link #getRejectedRecipients()}.
+ * </p>
+ *
+ * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
+ * @version 1.0
+ */
+public final class SendResult
+{
+	private static final Address[] NO_ADDRESS = new Address[0];
+
+	private final SimpleMessage message;
+	/**Recipients of result, null for the recipients of message*/
+	private final Address[] recipients;
+	private final Address[] rejected;
+	private final MessagingException exception;
+
+	/* Instance a result of the recipients of message, exception is null if the message is sent. */
+	SendResult(SimpleMessage message, Address[] rejected, MessagingException exception){
+		this( message, null, rejected, exception );
+	}
+
+	/* Instance a result of the recipients given, that are used when there is not a message or it's not sent to its recipients. */
+	SendResult(SimpleMessage message, Address[] recipients, Address[] rejected, MessagingException exception){
+		this.message = message;
+		this.recipients = recipients;
+		this.rejected = rejected == null ? NO_ADDRESS : rejected;
+		this.exception = exception;
+	}
+
+//====================================================================================================//
+// GETTER
+//====================================================================================================//
+	/**
+	 * Returns the message that this result describes.
+	 * @return {@link SimpleMessage} the message sent, or null if the message could not be created.
+	 */
+	public SimpleMessage getMessage(){
+		return this.message;
+	}
+
+	/**
+	 * Returns the recipients that this result describes: the envelope recipients the message was sent to, like
+	 * the ones of a transaction of {@link MailerManager#sendToAll(SimpleMessage, java.util.Collection)}, or the
+	 * recipient of a message that could not be created from a {@link MailTemplate}.
+	 * @return {@link Address} array of recipients, empty if there aren't or they can not be read.
+	 */
+	public Address[] getRecipients(){
+		if(this.recipients != null)
+			return this.recipients.clone();
+		if(this.message == null)
+			return NO_ADDRESS;
+
+		try {
+			Address[] all = this.message.getAllRecipients();
+			return all == null ? NO_ADDRESS : all;
+		} catch(MessagingException e) {
+			return NO_ADDRESS;
+		}
+	}
+
+	/**
+	 * Returns true if the server accepted the message.
+	 * @return {@link Boolean} true if the message is sent, otherwise false.
+	 */
+	public boolean isSent(){
+		return this.exception == null;
+	}
+
+	/**
+	 * Returns the recipients rejected by the server.
+	 * @return {@link Address} array of rejected recipients, empty if there aren't.
+	 */
+	public Address[] getRejectedRecipients(){
+		return this.rejected.clone();
+	}
+
+	/**
+	 * Returns the reason why the message is not sent.
+	 * @return {@link MessagingException} the failure cause, or null if the message is sent.
+	 */
+	public MessagingException getException(){
+		return this.exception;
+	}
+
+//====================================================================================================//
+// OVERRIDE
+//====================================================================================================//
+	@Override
+	public String toString(){
+		if(this.isSent())
+			return "sent" + (this.rejected.length == 0 ? "" : ", " + this.rejected.length + " recipients rejected");
+		return "failed: " + this.exception.getMessage();
+	}
+}
@@ -0,0 +1,268 @@
+package it.hackcaffebabe.netutil.mail;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+
+
+/**
+ * <p>
+ * Cache of the logins of {@link MailerManager}: for each user it keeps the {@link Session} and the
+ * {@link TransportPool} with its authenticated connections, so a login with a user already seen costs a map lookup
+ * instead of a new session and a full connect.<br>
+ * The logins are kept in least recently used order: over the maximum size, or when they are not used since the
+ * idle timeout, the oldest are removed and their connections closed. The login in use by the mailer and the logins
+ * in progress are never removed this way. The eviction is lazy: it runs only when a login is made current, so the
+ * connections of idle logins stay open until the next login of the mailer or until {@link #close()}.<br>
+ * A login with a different password replaces the cached one. Two threads that log in with the same new user
+ * at the same time share the same connect.
+ * </p>
+ * The cache reads this optional keys from the mail configuration:
+ * <pre>
+ * mailer.session.cacheSize=16
+ * mailer.session.idleTimeout=300000
+ * </pre>
+ *
+ * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
+ * @version 1.0
+ */
+final class SessionCache
+{
+	private final Properties properties;
+	private final int maxSize;
+	private final long idleTimeout;
+
+	/**The logins in access order, the least recently used first. Guarded by this*/
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>( 16, 0.75f, true );
+	/**The login in use by the mailer. Guarded by this*/
+	private Entry current;
+	private MailerInstrumentation instrumentation = MailerInstrumentation.NOOP;
+
+	/**
+	 * Instance a empty cache.
+	 * @param properties {@link Properties} the mail configuration of sessions and pools.
+	 * @throws IllegalArgumentException if one of session keys is not valid.
+	 */
+	SessionCache(Properties properties) throws IllegalArgumentException{
+		this.properties = properties;
+		this.maxSize = MailerConfig.getInt( properties, MailerConfig.SESSION_CACHE_SIZE, 16 );
+		if(this.maxSize < 1)
+			throw new IllegalArgumentException( MailerConfig.SESSION_CACHE_SIZE + " must be greater than zero." );
+		this.idleTimeout = TimeUnit.MILLISECONDS.toNanos( MailerConfig.getLong( properties, MailerConfig.SESSION_IDLE_TIMEOUT, 300000L ) );
+	}
+
+//====================================================================================================//
+// METHOD
+//====================================================================================================//
+	/**
+	 * Returns the login of user, creating and connecting it if it's not cached.<br>
+	 * The login returned is not evicted until it's given to {@link #use(Entry)}, that MUST be called.
+	 * @param user {@link String} user name to login with mail server.
+	 * @param password {@link String} password to login with mail server.
+	 * @return {@link Entry} the connected login.
+	 * @throws MessagingException if the login is new and the connect fails.
+	 */
+	Entry login(String user, String password) throws MessagingException{
+		Entry e, replaced = null;
+		synchronized( this ) {
+			e = this.entries.get( user );
+			if(e == null || !e.password.equals( password )) {
+				replaced = e;
+				e = new Entry( user, password );
+				this.entries.put( user, e );
+			}
+			e.lastUsed = System.nanoTime();
+			e.pending++;
+		}
+
+		// connect out of the lock: the logins of other users don't wait this one
+		try {
+			e.connect();
+		} catch(MessagingException | RuntimeException ex) {
+			synchronized( this ) {
+				e.pending--;
+				if(this.entries.get( user ) == e) {
+					// a wrong password doesn't drop the login that works
+					if(replaced != null)
+						this.entries.put( user, replaced );
+					else
+						this.entries.remove( user );
+				}
+			}
+			throw ex;
+		}
+
+		if(replaced != null) {
+			synchronized( this ) {
+				if(this.current == replaced)
+					this.current = null;
+			}
+			replaced.close();
+		}
+		return e;
+	}
+
+	/**
+	 * Makes the login given the current one, then evicts the logins over the size and the idle ones.
+	 * @param e {@link Entry} a login returned by {@link #login(String, String)}.
+	 */
+	void use(Entry e){
+		List<Entry> evicted = new ArrayList<>();
+		synchronized( this ) {
+			e.pending--;
+			this.current = e;
+			e.pool.setInstrumentation( this.instrumentation );
+			this.evict( evicted );
+		}
+		close( evicted );
+	}
+
+	/**
+	 * Removes the current login and closes its connections.
+	 * @return {@link Entry} the login removed, or null if there is not a current login.
+	 */
+	Entry logout(){
+		Entry e;
+		synchronized( this ) {
+			e = this.current;
+			this.current = null;
+			if(e != null && this.entries.get( e.user ) == e)
+				this.entries.remove( e.user );
+		}
+		if(e != null)
+			e.close();
+		return e;
+	}
+
+	/**
+	 * Removes all the logins and closes their connections.
+	 */
+	void close(){
+		List<Entry> all;
+		synchronized( this ) {
+			all = new ArrayList<>( this.entries.values() );
+			this.entries.clear();
+			this.current = null;
+		}
+		close( all );
+	}
+
+	/* Moves into evicted the logins over the size and the idle ones, except the current. Called holding the lock. */
+	private void evict(List<Entry> evicted){
+		long now = System.nanoTime();
+		int size = this.entries.size();
+		Iterator<Entry> i = this.entries.values().iterator();
+		while( i.hasNext() ) {
+			Entry e = i.next();
+			if(size <= this.maxSize && now - e.lastUsed < this.idleTimeout)
+				break; // the others are used more recently
+			if(e == this.current || e.pending > 0)
+				continue;
+			i.remove();
+			evicted.add( e );
+			size--;
+		}
+	}
+
+	private static void close(List<Entry> entries){
+		for(Entry e: entries)
+			e.close();
+		entries.clear();
+	}
+
+//====================================================================================================//
+// GETTER
+//====================================================================================================//
+	/**
+	 * Returns the number of logins cached.
+	 * @return {@link Integer} the cached logins.
+	 */
+	synchronized int size(){
+		return this.entries.size();
+	}
+
+//====================================================================================================//
+// SETTER
+//====================================================================================================//
+	/**
+	 * Sets the instrumentation of all the pools, the cached ones and the next.
+	 * @param instrumentation {@link MailerInstrumentation} the instrumentation.
+	 */
+	synchronized void setInstrumentation(MailerInstrumentation instrumentation){
+		this.instrumentation = instrumentation;
+		for(Entry e: this.entries.values())
+			if(e.pool != null)
+				e.pool.setInstrumentation( instrumentation );
+	}
+
+//====================================================================================================//
+// INNER CLASS
+//====================================================================================================//
+	/**
+	 * The session and the pool of connections of a user.
+	 */
+	final class Entry
+	{
+		final String user;
+		private final String password;
+		/**Set by connect, read by the threads that called it*/
+		private Session session;
+		private TransportPool pool;
+		/**Last time, in nanoseconds, of a login. Guarded by the cache*/
+		private long lastUsed;
+		/**Logins of this entry in progress, that can not be evicted. Guarded by the cache*/
+		private int pending;
+
+		private Entry(String user, String password){
+			this.user = user;
+			this.password = password;
+		}
+
+		/* Creates the session and opens the first connection, only once. */
+		private synchronized void connect() throws MessagingException{
+			if(this.pool != null)
+				return;
+
+			Session s = Session.getInstance( properties, new AuthenticationFactory( this.user, this.password ).getAuthenticator() );
+			TransportPool p = new TransportPool( s, properties.getProperty( "mail.smtp.host" ), this.user, this.password, properties );
+			synchronized( SessionCache.this ) {
+				p.setInstrumentation( instrumentation );
+			}
+			// open the first connection now, so a wrong login fails here and not on first send
+			try {
+				p.release( p.lease(), true );
+			} catch(MessagingException | RuntimeException e) {
+				p.close();
+				throw e;
+			}
+			this.session = s;
+			this.pool = p;
+		}
+
+		private synchronized void close(){
+			if(this.pool != null)
+				this.pool.close();
+		}
+
+		/**
+		 * Returns the session of user.
+		 * @return {@link Session} the session.
+		 */
+		synchronized Session getSession(){
+			return this.session;
+		}
+
+		/**
+		 * Returns the pool of connections of user.
+		 * @return {@link TransportPool} the pool.
+		 */
+		synchronized TransportPool getPool(){
+			return this.pool;
+		}
+	}
+}
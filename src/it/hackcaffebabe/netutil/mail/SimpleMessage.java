@@ -1,12 +1,16 @@
 package it.hackcaffebabe.netutil.mail;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.StringTokenizer;
 import javax.activation.DataHandler;
-import javax.activation.DataSource;
-import javax.activation.FileDataSource;
 import javax.mail.BodyPart;
 import javax.mail.Message;
 import javax.mail.MessagingException;
@@ -32,6 +36,8 @@ import javax.mail.internet.MimeMultipart;
  * </pre>
  * Remember to use null attachment list to send email without attachments.
  * </p>
+ * A message sent many times, or by another thread, can be serialized once with {@link #freeze()}: after that the
+ * transport writes the frozen bytes instead of encoding the headers and the parts again. Any setter thaws it.
  * 
  * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
  * @version 1.0
@@ -40,6 +46,10 @@ public class SimpleMessage extends MimeMessage
 {
 	/**This describe all the part of email ( from, recipients, content, attachments )*/
 	private Multipart multipart = new MimeMultipart();
+	/**Headers not written by the transport, so not into the frozen bytes*/
+	private static final String[] TRANSPORT_IGNORED = { "Bcc", "Content-Length" };
+	/**The message serialized by freeze(), null if it's not frozen*/
+	private volatile Frozen frozen;
 
 	/**
 	 * Instance a SimpleMessage with current opened {@link Session}
@@ -49,32 +59,99 @@ public class SimpleMessage extends MimeMessage
 		super( session );
 	}
 
+	/**
+	 * Instance a SimpleMessage reading a RFC 822 message, like the ones stored by the spool of {@link MailerManager}.
+	 * @param session {@link Session} current opened session.
+	 * @param rfc822 {@link InputStream} the message to read.
+	 * @throws MessagingException if the message can not be parsed.
+	 */
+	public SimpleMessage(Session session, InputStream rfc822) throws MessagingException{
+		super( session, rfc822 );
+	}
+
 //====================================================================================================//
 // METHOD
 //====================================================================================================//	
 	/**
 	 * This method returns a list of {@link NetUser} from a string given. <br>
 	 * That string must be in format <email>; <email>; ecc..<br>
-	 * NB: If there is only one email, the format must be <email>;
+	 * NB: If there is only one email, the format must be <email>;<br>
+	 * To read long lists, from file too, without stop at the first invalid email use {@link RecipientReader}.
 	 * @param emails {@link String} formatted like <email>; <email>; <email>; ... 
 	 * @return {@link ArrayList} of {@link NetUser}
 	 * @throws IllegalArgumentException if input string is not in format or null;
 	 */
 	public static ArrayList<NetUser> parseEmails(String emails) throws IllegalArgumentException{
-		StringTokenizer token = new StringTokenizer( emails, ";" );
-		if(token.countTokens() == 1) {
-			StringTokenizer token2 = new StringTokenizer( emails, " " );
-			if(token2.countTokens() > 1)
-				throw new IllegalArgumentException( "String to parse is not in format <email>; <email>; <email>; .." );
-		}
+		if(emails == null)
+			throw new IllegalArgumentException( "String to parse can not be null." );
+
+		final String[] error = new String[1];
+		RecipientReader reader = new RecipientReader( new StringReader( emails ), ";", true, Integer.MAX_VALUE );
+		reader.setInvalidListener( new RecipientReader.InvalidListener(){
+			@Override
+			public void onInvalid(String entry, long line, String reason){
+				if(error[0] == null)
+					error[0] = reason;
+			}
+		} );
 
 		ArrayList<NetUser> emailsList = new ArrayList<>();
-		while( token.hasMoreTokens() )
-			emailsList.add( new NetUser( token.nextToken().trim() ) );
+		while( error[0] == null && reader.hasNext() )
+			emailsList.add( reader.next() );
 
+		// a single email with spaces is a list in wrong format
+		boolean single = error[0] == null ? emailsList.size() == 1 : new StringTokenizer( emails, ";" ).countTokens() == 1;
+		if(single && new StringTokenizer( emails, " " ).countTokens() > 1)
+			throw new IllegalArgumentException( "String to parse is not in format <email>; <email>; <email>; .." );
+		if(error[0] != null)
+			throw new IllegalArgumentException( error[0] );
 		return emailsList;
 	}
 
+	/**
+	 * This method saves the changes and serializes the message once, as the transport sends it.<br>
+	 * Until the message is changed again, sending it or retrying it writes the same bytes with no encoding work, so
+	 * the encoding can be done on the thread that creates the message instead of the one that holds the connection.
+	 * Any setter of headers or content thaws the message, and the next send encodes it again.<br>
+	 * The frozen bytes are kept on heap, attachments included: don't freeze a message with large attachments,
+	 * that {@link StreamingAttachmentPart} would send with a fixed amount of memory.
+	 * @throws MessagingException if the message can not be serialized.
+	 */
+	public synchronized void freeze() throws MessagingException{
+		this.frozen = null;
+		super.saveChanges();
+		Frozen f = new Frozen();
+		try {
+			super.writeTo( f, TRANSPORT_IGNORED );
+		} catch(IOException e) {
+			throw new MessagingException( "Message can not be serialized.", e );
+		}
+		this.frozen = f;
+	}
+
+//====================================================================================================//
+// GETTER
+//====================================================================================================//
+	/**
+	 * Returns true if the message is frozen by {@link #freeze()} and not changed after.
+	 * @return {@link Boolean} true if the message is frozen.
+	 */
+	public boolean isFrozen(){
+		return this.frozen != null;
+	}
+
+	/**
+	 * Returns the frozen bytes of message, the headers without Bcc and the encoded content, like a DKIM signer needs.<br>
+	 * Adding the DKIM-Signature header thaws the message: freeze it again after.<br>
+	 * The buffer is on the heap: JavaMail writes the message into the stream of socket, so a direct buffer
+	 * would be copied into a heap array to be written anyway.
+	 * @return {@link ByteBuffer} read only view of the frozen bytes, or null if the message is not frozen.
+	 */
+	public ByteBuffer getFrozenContent(){
+		Frozen f = this.frozen;
+		return f == null ? null : f.toBuffer();
+	}
+
 //====================================================================================================//
 // SETTER
 //====================================================================================================//	
@@ -126,7 +203,7 @@ public class SimpleMessage extends MimeMessage
 	/**
 	 * Sets the body of email.
 	 * @param text {@link String} the text body of email.
-	 * @param attachments {@link List} list file as attachments. 
+	 * @param attachments {@link List} list file as attachments, streamed at send time by {@link StreamingAttachmentPart}. 
 	 * 									Set this arguments at null, or empty list to doesn't set attachment on emil.
 	 * @throws IllegalArgumentException if text given is null.
 	 * @throws MessagingException if there are problem with adding recipient email.
@@ -140,15 +217,127 @@ public class SimpleMessage extends MimeMessage
 		this.multipart.addBodyPart( textContent );
 
 		if(attachments != null) {
-			for(File f: attachments) {
-				BodyPart attachmentContent = new MimeBodyPart();
-				DataSource source = new FileDataSource( f.getAbsolutePath() );
-				attachmentContent.setDataHandler( new DataHandler( source ) );
-				attachmentContent.setFileName( f.getName() );
-				this.multipart.addBodyPart( attachmentContent );
-			}
+			for(File f: attachments)
+				this.multipart.addBodyPart( new StreamingAttachmentPart( f ) );
 		}
 
 		setContent( this.multipart );
 	}
+
+	/**
+	 * Adds a part at the end of the email, like the parts returned by {@link MimePartCache}.<br>
+	 * Call it after {@link #setBodyMessage(String, List)} to keep the text as first part.
+	 * @param part {@link MimeBodyPart} the part to add.
+	 * @throws IllegalArgumentException if part given is null.
+	 * @throws MessagingException if the part can not be added.
+	 */
+	public void addBodyPart(MimeBodyPart part) throws IllegalArgumentException, MessagingException{
+		if(part == null)
+			throw new IllegalArgumentException( "Part of email can not be null." );
+
+		this.multipart.addBodyPart( part );
+		setContent( this.multipart );
+	}
+
+	/**
+	 * Adds a file as attachment, taking it already encoded from the cache given.
+	 * @param attachment {@link File} the file to attach.
+	 * @param cache {@link MimePartCache} the cache of encoded parts.
+	 * @throws IllegalArgumentException if attachment or cache are null.
+	 * @throws MessagingException if the file can not be encoded.
+	 */
+	public void addAttachment(File attachment, MimePartCache cache) throws IllegalArgumentException, MessagingException{
+		if(cache == null)
+			throw new IllegalArgumentException( "Cache of parts can not be null." );
+
+		this.addBodyPart( cache.getAttachment( attachment ) );
+	}
+
+//====================================================================================================//
+// OVERRIDE
+//====================================================================================================//
+	/* A frozen message writes its bytes when the transport asks the same headers used by freeze(). */
+	@Override
+	public void writeTo(OutputStream os, String[] ignoreList) throws IOException, MessagingException{
+		Frozen f = this.frozen;
+		if(f != null && ignores( ignoreList, TRANSPORT_IGNORED ))
+			f.writeTo( os );
+		else
+			super.writeTo( os, ignoreList );
+	}
+
+	/* The headers of a frozen message are already saved. */
+	@Override
+	public void saveChanges() throws MessagingException{
+		if(this.frozen == null)
+			super.saveChanges();
+	}
+
+	// the setters of headers and content thaw the message
+
+	@Override
+	public void setHeader(String name, String value) throws MessagingException{
+		this.frozen = null;
+		super.setHeader( name, value );
+	}
+
+	@Override
+	public void addHeader(String name, String value) throws MessagingException{
+		this.frozen = null;
+		super.addHeader( name, value );
+	}
+
+	@Override
+	public void addHeaderLine(String line) throws MessagingException{
+		this.frozen = null;
+		super.addHeaderLine( line );
+	}
+
+	@Override
+	public void removeHeader(String name) throws MessagingException{
+		this.frozen = null;
+		super.removeHeader( name );
+	}
+
+	@Override
+	public void setDataHandler(DataHandler dh) throws MessagingException{
+		this.frozen = null;
+		super.setDataHandler( dh );
+	}
+
+	/* The Message-ID is created only once, so a message sent again ( spool replay or retry ) keeps its identity. */
+	@Override
+	protected void updateMessageID() throws MessagingException{
+		if(getHeader( "Message-ID" ) == null)
+			super.updateMessageID();
+	}
+
+	/* Returns true if list contains all the names given, ignoring case. */
+	private static boolean ignores(String[] list, String[] names){
+		if(list == null)
+			return false;
+		for(String n: names) {
+			boolean found = false;
+			for(int i = 0; i < list.length && !found; i++)
+				found = n.equalsIgnoreCase( list[i] );
+			if(!found)
+				return false;
+		}
+		return true;
+	}
+
+//====================================================================================================//
+// INNER CLASS
+//====================================================================================================//
+	/* The bytes of a frozen message, kept in the array of stream without copy. */
+	private static final class Frozen extends ByteArrayOutputStream
+	{
+		Frozen(){
+			super( 8192 );
+		}
+
+		ByteBuffer toBuffer(){
+			return ByteBuffer.wrap( this.buf, 0, this.count ).asReadOnlyBuffer();
+		}
+	}
 }
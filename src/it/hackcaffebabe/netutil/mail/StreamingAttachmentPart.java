@@ -0,0 +1,140 @@
+package it.hackcaffebabe.netutil.mail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Enumeration;
+import javax.activation.DataHandler;
+import javax.activation.FileDataSource;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeBodyPart;
+
+
+/**
+ * <p>
+ * Attachment that streams a file into the transport output, encoding it in base64 with fixed size buffers.<br>
+ * The file is read with a {@link FileChannel} in chunks of 57 KB that are encoded straight into 76 chars lines,
+ * so the memory used doesn't depend on the size of file and the file is never loaded on heap.<br>
+ * The transfer encoding is always base64 and it's set in advance, so javax.mail doesn't read the whole file
+ * to choose it.
+ * </p>
+ *
+ * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
+ * @version 1.0
+ */
+public class StreamingAttachmentPart extends MimeBodyPart
+{
+	/**Bytes of input that fill one base64 line*/
+	private static final int LINE_INPUT = 57;
+	/**Lines encoded for each read of file*/
+	private static final int LINES_PER_CHUNK = 1024;
+	private static final byte[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes( StandardCharsets.US_ASCII );
+	private static final byte[] CRLF = { '\r', '\n' };
+
+	private final File file;
+
+	/**
+	 * Instance a attachment of the file given.
+	 * @param file {@link File} the file to attach.
+	 * @throws IllegalArgumentException if file is null.
+	 * @throws MessagingException if the headers of attachment can not be set.
+	 */
+	public StreamingAttachmentPart(File file) throws IllegalArgumentException, MessagingException{
+		if(file == null)
+			throw new IllegalArgumentException( "File to attach can not be null." );
+
+		this.file = file.getAbsoluteFile();
+		FileDataSource source = new FileDataSource( this.file );
+		this.setDataHandler( new DataHandler( source ) );
+		this.setHeader( "Content-Type", source.getContentType() );
+		this.setHeader( "Content-Transfer-Encoding", "base64" );
+		this.setFileName( file.getName() );
+	}
+
+//====================================================================================================//
+// METHOD
+//====================================================================================================//
+	/**
+	 * Writes the encoded file, without headers, to the stream given.
+	 * @param os {@link OutputStream} the stream to write.
+	 * @throws IOException if the file can not be read or the stream can not be written.
+	 */
+	public void writeContentTo(OutputStream os) throws IOException{
+		try (FileChannel channel = FileChannel.open( this.file.toPath(), StandardOpenOption.READ )) {
+			encode( channel, os );
+		}
+	}
+
+	/**
+	 * Encodes in base64 all the bytes of channel, with lines of 76 chars ended by CRLF.
+	 * @param channel {@link FileChannel} the channel to read until its end.
+	 * @param os {@link OutputStream} the stream to write.
+	 * @throws IOException if the channel can not be read or the stream can not be written.
+	 */
+	static void encode(FileChannel channel, OutputStream os) throws IOException{
+		byte[] in = new byte[LINE_INPUT * LINES_PER_CHUNK];
+		byte[] out = new byte[(LINE_INPUT / 3 * 4 + CRLF.length) * LINES_PER_CHUNK];
+		ByteBuffer buffer = ByteBuffer.wrap( in );
+
+		boolean eof = false;
+		while( !eof ) {
+			while( buffer.hasRemaining() && !eof )
+				eof = channel.read( buffer ) < 0;
+
+			// full lines only, the rest waits the next read unless the file is ended
+			int available = buffer.position();
+			int length = eof ? available : available - available % LINE_INPUT;
+			int n = encode( in, length, out );
+			os.write( out, 0, n );
+
+			buffer.limit( available ).position( length );
+			buffer.compact();
+		}
+		os.flush();
+	}
+
+	/* Encodes length bytes of in into out, returns the number of bytes written. */
+	private static int encode(byte[] in, int length, byte[] out){
+		int o = 0;
+		for(int line = 0; line < length; line += LINE_INPUT) {
+			int end = Math.min( length, line + LINE_INPUT );
+			int i = line;
+			for(; i + 3 <= end; i += 3) {
+				int bits = (in[i] & 0xff) << 16 | (in[i + 1] & 0xff) << 8 | (in[i + 2] & 0xff);
+				out[o++] = ALPHABET[bits >>> 18];
+				out[o++] = ALPHABET[(bits >>> 12) & 0x3f];
+				out[o++] = ALPHABET[(bits >>> 6) & 0x3f];
+				out[o++] = ALPHABET[bits & 0x3f];
+			}
+
+			if(i < end) {
+				int bits = (in[i] & 0xff) << 16 | (i + 1 < end ? (in[i + 1] & 0xff) << 8 : 0);
+				out[o++] = ALPHABET[bits >>> 18];
+				out[o++] = ALPHABET[(bits >>> 12) & 0x3f];
+				out[o++] = i + 1 < end ? ALPHABET[(bits >>> 6) & 0x3f] : (byte) '=';
+				out[o++] = '=';
+			}
+			out[o++] = CRLF[0];
+			out[o++] = CRLF[1];
+		}
+		return o;
+	}
+
+//====================================================================================================//
+// OVERRIDE
+//====================================================================================================//
+	@Override
+	public void writeTo(OutputStream os) throws IOException, MessagingException{
+		Enumeration<?> lines = this.getAllHeaderLines();
+		while( lines.hasMoreElements() ) {
+			os.write( ((String) lines.nextElement()).getBytes( StandardCharsets.ISO_8859_1 ) );
+			os.write( CRLF );
+		}
+		os.write( CRLF );
+		this.writeContentTo( os );
+	}
+}
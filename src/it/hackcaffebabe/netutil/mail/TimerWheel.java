@@ -0,0 +1,134 @@
+package it.hackcaffebabe.netutil.mail;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * <p>
+ * Hashed timer wheel that runs delayed tasks with the resolution of one tick.<br>
+ * A task is put into the bucket of its deadline, with the number of wheel rounds still to wait, so adding
+ * and expiring a task costs O(1) also with many thousands of tasks waiting.<br>
+ * All the tasks are run by the same daemon thread, so they MUST be short.
+ * </p>
+ *
+ * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
+ * @version 1.0
+ */
+final class TimerWheel
+{
+	private final long tickNanos;
+	private final int mask;
+	/**Buckets of tasks, used only by the wheel thread*/
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private final ArrayDeque<Timeout>[] buckets = new ArrayDeque[512];
+	/**Tasks added by other threads, moved into buckets at every tick*/
+	private final Queue<Timeout> incoming = new ConcurrentLinkedQueue<>();
+	private final long start = System.nanoTime();
+	private final Thread worker;
+	private volatile boolean running = true;
+
+	/**
+	 * Instance and starts a timer wheel.
+	 * @param tickMillis {@link Long} milliseconds of one tick, the resolution of timer.
+	 * @param name {@link String} the name of wheel thread.
+	 */
+	TimerWheel(long tickMillis, String name){
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos( Math.max( 1L, tickMillis ) );
+		this.mask = this.buckets.length - 1;
+		for(int i = 0; i < this.buckets.length; i++)
+			this.buckets[i] = new ArrayDeque<>();
+
+		this.worker = new Thread( new Runnable(){
+			@Override
+			public void run(){
+				TimerWheel.this.run();
+			}
+		}, name );
+		this.worker.setDaemon( true );
+		this.worker.start();
+	}
+
+//====================================================================================================//
+// METHOD
+//====================================================================================================//
+	/**
+	 * Runs a task after the delay given.
+	 * @param task {@link Runnable} the task to run.
+	 * @param delay {@link Long} the delay.
+	 * @param unit {@link TimeUnit} the unit of delay.
+	 */
+	void schedule(Runnable task, long delay, TimeUnit unit){
+		long deadline = System.nanoTime() - this.start + unit.toNanos( Math.max( 0L, delay ) );
+		this.incoming.add( new Timeout( task, deadline ) );
+	}
+
+	/**
+	 * Stops the wheel thread, the tasks not run yet are discarded.
+	 */
+	void stop(){
+		this.running = false;
+		this.worker.interrupt();
+	}
+
+	private void run(){
+		long tick = 0;
+		while( this.running ) {
+			long sleep = (tick + 1) * this.tickNanos - (System.nanoTime() - this.start);
+			if(sleep > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep( sleep );
+				} catch(InterruptedException e) {
+					return;
+				}
+			}
+
+			this.transfer( tick );
+			Iterator<Timeout> i = this.buckets[(int) (tick & this.mask)].iterator();
+			while( i.hasNext() ) {
+				Timeout t = i.next();
+				if(t.rounds > 0) {
+					t.rounds--;
+					continue;
+				}
+				i.remove();
+				try {
+					t.task.run();
+				} catch(RuntimeException e) {
+					// a task can not stop the wheel
+				}
+			}
+			tick++;
+		}
+	}
+
+	/* Moves the new tasks into their buckets. */
+	private void transfer(long tick){
+		Timeout t;
+		while( (t = this.incoming.poll()) != null ) {
+			long ticks = Math.max( t.deadline / this.tickNanos, tick );
+			t.rounds = (ticks - tick) / this.buckets.length;
+			this.buckets[(int) (ticks & this.mask)].add( t );
+		}
+	}
+
+//====================================================================================================//
+// INNER CLASS
+//====================================================================================================//
+	/* A task waiting into the wheel. */
+	private static final class Timeout
+	{
+		final Runnable task;
+		/**Nanoseconds since the start of wheel*/
+		final long deadline;
+		long rounds;
+
+		Timeout(Runnable task, long deadline){
+			this.task = task;
+			this.deadline = deadline;
+		}
+	}
+}
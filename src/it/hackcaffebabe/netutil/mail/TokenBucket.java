@@ -0,0 +1,68 @@
+package it.hackcaffebabe.netutil.mail;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * <p>
+ * Lock-free token bucket that paces the messages at a rate, allowing a burst after an idle time.<br>
+ * The bucket is kept as the theoretical arrival time of the next message (GCRA): taking a token is a single
+ * compare-and-set, and the caller that finds the bucket empty reserves its token and sleeps until it's due,
+ * so the callers are served in the order they arrive without any lock.
+ * </p>
+ *
+ * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
+ * @version 1.0
+ */
+final class TokenBucket
+{
+	/**Nanoseconds between two tokens*/
+	private final long interval;
+	/**Nanoseconds of credit that an idle bucket can accumulate*/
+	private final long tolerance;
+	/**Theoretical arrival time of next message*/
+	private final AtomicLong tat = new AtomicLong( System.nanoTime() );
+
+	/**
+	 * Instance a full bucket.
+	 * @param perSecond {@link Double} tokens added each second, greater than zero.
+	 * @param burst {@link Integer} maximum number of tokens, at least one.
+	 */
+	TokenBucket(double perSecond, int burst){
+		this.interval = Math.max( 1L, (long) (TimeUnit.SECONDS.toNanos( 1L ) / perSecond) );
+		this.tolerance = this.interval * Math.max( 1, burst );
+	}
+
+//====================================================================================================//
+// METHOD
+//====================================================================================================//
+	/**
+	 * Takes a token and returns how long the caller must wait before to use it.
+	 * @return {@link Long} nanoseconds to wait, 0 if the token is available now.
+	 */
+	long reserve(){
+		while( true ) {
+			long now = System.nanoTime();
+			long current = this.tat.get();
+			long next = Math.max( current, now ) + this.interval;
+			if(this.tat.compareAndSet( current, next ))
+				return Math.max( 0L, next - this.tolerance - now );
+		}
+	}
+
+	/**
+	 * Takes a token, sleeping until it's available.
+	 * @throws InterruptedException if the thread is interrupted while waiting.
+	 */
+	void acquire() throws InterruptedException{
+		long deadline = System.nanoTime() + this.reserve();
+		long wait;
+		while( (wait = deadline - System.nanoTime()) > 0 ) {
+			LockSupport.parkNanos( this, wait );
+			if(Thread.interrupted())
+				throw new InterruptedException();
+		}
+	}
+}
@@ -0,0 +1,295 @@
+package it.hackcaffebabe.netutil.mail;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.URLName;
+import com.sun.mail.smtp.SMTPTransport;
+
+
+/**
+ * <p>
+ * Bounded pool of connected and authenticated {@link SMTPTransport}.<br>
+ * The transports are {@link PipeliningSMTPTransport}, so the envelope is pipelined when the server supports it.<br>
+ * A connection is leased to send one or more messages and then released back to the pool,
+ * so the TCP, TLS and AUTH handshakes are paid once for many messages.<br>
+ * Idle connections are checked with NOOP (or RSET if <code>mail.smtp.userset</code> is true)
+ * before reuse, and are closed after an idle time or after a maximum number of messages.<br>
+ * The new connections are timed by the {@link MailerInstrumentation} of pool, see {@link #getStats()} for its state.
+ * </p>
+ * The pool reads this optional keys from the mail configuration:
+ * <pre>
+ * mailer.pool.maxConnections=4
+ * mailer.pool.idleTimeout=60000
+ * mailer.pool.validateAfter=5000
+ * mailer.pool.maxMessagesPerConnection=100
+ * mailer.pool.leaseTimeout=30000
+ * </pre>
+ *
+ * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
+ * @version 1.0
+ */
+class TransportPool
+{
+	private final Session session;
+	private final String host, user, password;
+
+	private final int maxConnections, maxMessages;
+	private final long idleTimeout, validateAfter, leaseTimeout;
+
+	/**One permit for each connection that can be opened*/
+	private final Semaphore permits;
+	/**Idle connections, the most recently used on the head. Guarded by this*/
+	private final Deque<PooledTransport> idle = new ArrayDeque<>();
+	private volatile boolean closed;
+
+	private volatile MailerInstrumentation instrumentation = MailerInstrumentation.NOOP;
+	private final AtomicLong opened = new AtomicLong(), closedConnections = new AtomicLong(), leaseTimeouts = new AtomicLong();
+
+	/**
+	 * Instance a pool of connection with the mail server.
+	 * @param session {@link Session} the session used to create the transports.
+	 * @param host {@link String} the mail server host.
+	 * @param user {@link String} user name to login with mail server.
+	 * @param password {@link String} password to login with mail server.
+	 * @param properties {@link Properties} the mail configuration with the pool keys.
+	 * @throws IllegalArgumentException if one of the pool keys is not valid.
+	 */
+	TransportPool(Session session, String host, String user, String password, Properties properties) throws IllegalArgumentException{
+		this.session = session;
+		this.host = host;
+		this.user = user;
+		this.password = password;
+
+		this.maxConnections = MailerConfig.getInt( properties, MailerConfig.POOL_MAX_CONNECTIONS, 4 );
+		if(this.maxConnections < 1)
+			throw new IllegalArgumentException( MailerConfig.POOL_MAX_CONNECTIONS + " must be greater than zero." );
+
+		this.permits = new Semaphore( this.maxConnections, true );
+		this.maxMessages = MailerConfig.getInt( properties, MailerConfig.POOL_MAX_MESSAGES, 100 );
+		this.idleTimeout = MailerConfig.getLong( properties, MailerConfig.POOL_IDLE_TIMEOUT, 60000L );
+		this.validateAfter = MailerConfig.getLong( properties, MailerConfig.POOL_VALIDATE_AFTER, 5000L );
+		this.leaseTimeout = MailerConfig.getLong( properties, MailerConfig.POOL_LEASE_TIMEOUT, 30000L );
+	}
+
+//====================================================================================================//
+// METHOD
+//====================================================================================================//
+	/**
+	 * Returns a connected transport, reusing an idle one if possible.<br>
+	 * The transport MUST be given back with {@link #release(PooledTransport, boolean)}.
+	 * @return {@link PooledTransport} a connected transport.
+	 * @throws MessagingException if the pool is closed, no connection is free before the lease timeout
+	 *                            or the connection with the mail server fail.
+	 */
+	PooledTransport lease() throws MessagingException{
+		if(this.closed)
+			throw new MessagingException( "Connection pool is closed." );
+
+		try {
+			if(!this.permits.tryAcquire( this.leaseTimeout, TimeUnit.MILLISECONDS )) {
+				this.leaseTimeouts.incrementAndGet();
+				throw new MessagingException( "No SMTP connection free after " + this.leaseTimeout + " ms." );
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MessagingException( "Interrupted while waiting for a SMTP connection.", e );
+		}
+
+		try {
+			PooledTransport t;
+			while( (t = this.pollIdle()) != null ) {
+				if(this.isReusable( t )) {
+					t.transport.instrumentation = this.instrumentation;
+					return t;
+				}
+				this.discard( t );
+			}
+			return this.open();
+		} catch(MessagingException | RuntimeException e) {
+			this.permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Gives back a transport obtained with {@link #lease()}.
+	 * @param t {@link PooledTransport} the transport to give back.
+	 * @param reusable false if the transport is in a unknown state and must be closed.
+	 */
+	void release(PooledTransport t, boolean reusable){
+		if(t == null)
+			return;
+
+		try {
+			t.lastUsed = System.nanoTime();
+			if(!reusable || this.closed || this.isExhausted( t )) {
+				this.discard( t );
+			} else {
+				synchronized( this ) {
+					this.idle.offerFirst( t );
+				}
+			}
+			this.evictIdle();
+		} finally {
+			this.permits.release();
+		}
+	}
+
+	/**
+	 * Closes all the idle connections and refuses new leases.<br>
+	 * Leased connections are closed when they are released.
+	 */
+	void close(){
+		this.closed = true;
+		synchronized( this ) {
+			for(PooledTransport t: this.idle)
+				this.discard( t );
+			this.idle.clear();
+		}
+	}
+
+	/**
+	 * Returns the user logged in by the connections of this pool.
+	 * @return {@link String} the login user.
+	 */
+	String getUser(){
+		return this.user;
+	}
+
+	/**
+	 * Returns the instrumentation of connections.
+	 * @return {@link MailerInstrumentation} the instrumentation, {@link MailerInstrumentation#NOOP} by default.
+	 */
+	MailerInstrumentation getInstrumentation(){
+		return this.instrumentation;
+	}
+
+	/**
+	 * Sets the instrumentation of connections, the idle connections use it from their next lease.
+	 * @param instrumentation {@link MailerInstrumentation} the instrumentation.
+	 */
+	void setInstrumentation(MailerInstrumentation instrumentation){
+		this.instrumentation = instrumentation;
+	}
+
+	/**
+	 * Returns the state of pool.
+	 * @return {@link PoolStats} the state at this time.
+	 */
+	PoolStats getStats(){
+		int idleCount;
+		synchronized( this ) {
+			idleCount = this.idle.size();
+		}
+		return new PoolStats( this.maxConnections, this.maxConnections - this.permits.availablePermits(), idleCount,
+				this.permits.getQueueLength(), this.opened.get(), this.closedConnections.get(), this.leaseTimeouts.get() );
+	}
+
+	/**
+	 * Returns true if the transport has sent the maximum number of messages and must be released.
+	 * @param t {@link PooledTransport} a leased transport.
+	 * @return {@link Boolean} true if the transport reached the message cap.
+	 */
+	boolean isExhausted(PooledTransport t){
+		return t.sent >= this.maxMessages;
+	}
+
+	/* Closes the idle connections not used since idleTimeout. */
+	private void evictIdle(){
+		long now = System.nanoTime();
+		synchronized( this ) {
+			Iterator<PooledTransport> i = this.idle.descendingIterator();
+			while( i.hasNext() ) {
+				PooledTransport t = i.next();
+				if(now - t.lastUsed < TimeUnit.MILLISECONDS.toNanos( this.idleTimeout ))
+					break;
+				i.remove();
+				this.discard( t );
+			}
+		}
+	}
+
+	private synchronized PooledTransport pollIdle(){
+		return this.idle.pollFirst();
+	}
+
+	/* Checks an idle connection: too old or too used connections are discarded, the others are checked with NOOP. */
+	private boolean isReusable(PooledTransport t){
+		long idleNanos = System.nanoTime() - t.lastUsed;
+		if(this.isExhausted( t ) || idleNanos >= TimeUnit.MILLISECONDS.toNanos( this.idleTimeout ))
+			return false;
+
+		if(idleNanos < TimeUnit.MILLISECONDS.toNanos( this.validateAfter ))
+			return true;
+
+		// SMTPTransport.isConnected() sends NOOP, or RSET if mail.smtp.userset is true
+		return t.transport.isConnected();
+	}
+
+	/* Opens and authenticates a new connection. */
+	private PooledTransport open() throws MessagingException{
+		MailerInstrumentation i = this.instrumentation;
+		if(i != MailerInstrumentation.NOOP && this.host != null)
+			resolve( this.host, i );
+
+		PipeliningSMTPTransport transport = new PipeliningSMTPTransport( this.session, new URLName( "smtp", this.host, -1, null, this.user, null ) );
+		transport.instrumentation = i;
+		transport.connect( this.host, this.user, this.password );
+		this.opened.incrementAndGet();
+		return new PooledTransport( transport );
+	}
+
+	/* Times the DNS lookup of host, the connect that follows finds it into the cache of JVM. */
+	private static void resolve(String host, MailerInstrumentation i){
+		long start = System.nanoTime();
+		boolean success = true;
+		try {
+			InetAddress.getAllByName( host );
+		} catch(UnknownHostException e) {
+			success = false; // the connect will fail with the error of JavaMail
+		}
+		i.phaseCompleted( MailerInstrumentation.Phase.RESOLVE, System.nanoTime() - start, success );
+	}
+
+	/* Closes a connection and counts it. */
+	private void discard(PooledTransport t){
+		t.closeQuietly();
+		this.closedConnections.incrementAndGet();
+	}
+
+//====================================================================================================//
+// INNER CLASS
+//====================================================================================================//
+	/**
+	 * A connection leased from {@link TransportPool}.
+	 */
+	static final class PooledTransport
+	{
+		/**The connected transport*/
+		final PipeliningSMTPTransport transport;
+		/**Number of message sent over this connection*/
+		int sent;
+		/**Last time, in nanoseconds, that the connection was released*/
+		long lastUsed = System.nanoTime();
+
+		private PooledTransport(PipeliningSMTPTransport transport){
+			this.transport = transport;
+		}
+
+		/* Closes the connection ignoring errors, the connection could be already dropped by server. */
+		void closeQuietly(){
+			try {
+				this.transport.close();
+			} catch(MessagingException e) {}
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package it.hackcaffebabe.netutil.mail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * <p>
+ * Simple class that collects the result of {@link BulkValidator}: the valid recipients without duplicates and the
+ * invalid entries, both in the same order of the list validated.<br>
+ * Use it like this:
+ * <pre>
+ * ValidationReport report = new BulkValidator().validate( emails );
+ * for( String s : report.getInvalid() )
+ *     log( "invalid recipient " + s );
+ * campaign.addAll( report.getValid() );
+ * </pre>
+ * </p>
+ *
+ * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
+ * @version 1.0
+ */
+public final class ValidationReport
+{
+	private final List<NetUser> valid;
+	private final List<String> invalid;
+	private final int duplicates;
+
+	/* Instance a report with the partitions filled by BulkValidator. */
+	ValidationReport(NetUser[] valid, String[] invalid, int duplicates){
+		this.valid = Collections.unmodifiableList( Arrays.asList( valid ) );
+		this.invalid = Collections.unmodifiableList( Arrays.asList( invalid ) );
+		this.duplicates = duplicates;
+	}
+
+//====================================================================================================//
+// GETTER
+//====================================================================================================//
+	/**
+	 * Returns the valid recipients, each one at its first occurrence into the list.
+	 * @return {@link List} of {@link NetUser} not modifiable.
+	 */
+	public List<NetUser> getValid(){
+		return this.valid;
+	}
+
+	/**
+	 * Returns the entries that are not valid recipients, as they are into the list.
+	 * @return {@link List} of {@link String} not modifiable, with null for the null entries.
+	 */
+	public List<String> getInvalid(){
+		return this.invalid;
+	}
+
+	/**
+	 * Returns the number of valid recipients, without duplicates.
+	 * @return {@link Integer} the valid recipients.
+	 */
+	public int getValidCount(){
+		return this.valid.size();
+	}
+
+	/**
+	 * Returns the number of invalid entries.
+	 * @return {@link Integer} the invalid entries.
+	 */
+	public int getInvalidCount(){
+		return this.invalid.size();
+	}
+
+	/**
+	 * Returns the number of valid recipients removed because they are already into the list.
+	 * @return {@link Integer} the duplicates removed.
+	 */
+	public int getDuplicateCount(){
+		return this.duplicates;
+	}
+
+	/**
+	 * Returns the number of entries validated, that is valid, invalid and duplicates.
+	 * @return {@link Integer} the entries of list.
+	 */
+	public int getTotalCount(){
+		return this.valid.size() + this.invalid.size() + this.duplicates;
+	}
+
+//====================================================================================================//
+// OVERRIDE
+//====================================================================================================//
+	@Override
+	public String toString(){
+		return this.getValidCount() + " valid, " + this.getInvalidCount() + " invalid, " + this.duplicates + " duplicates";
+	}
+}
@@ -0,0 +1,183 @@
+package it.hackcaffebabe.netutil.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.util.List;
+
+/**
+ * This class writes all the Network Interfaces of a {@link InterfaceSnapshot} as JSON or CSV, in one pass.<br>
+ * The text is written straight into the {@link Writer} given, use a buffered one for files or sockets:
+ * <pre>
+ * try( Writer w = new BufferedWriter( new FileWriter( "interfaces.json" ) ) ){
+ *     InterfaceExporter.writeJSON( NetUtil.getInterfaceSnapshot(), w );
+ * }
+ * </pre>
+ * The MAC addresses are written with {@link MacFormat}, empty for the interfaces without it.
+ *
+ * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
+ * @version 1.0
+ */
+public final class InterfaceExporter
+{
+	/**Columns of CSV, in order*/
+	public static final String CSV_HEADER = "name,displayName,index,mac,up,loopback,virtual,mtu,addresses";
+
+	private InterfaceExporter(){}
+
+
+	/**
+	 * This method writes the snapshot as a JSON array with one object for each Network Interface.
+	 * @param snapshot {@link InterfaceSnapshot} the interfaces to write.
+	 * @param out {@link Writer} where to write.
+	 * @throws IOException if is not possible to write.
+	 * @throws IllegalArgumentException if an argument is null.
+	 */
+	public static void writeJSON( InterfaceSnapshot snapshot, Writer out ) throws IOException, IllegalArgumentException{
+		check( snapshot, out );
+
+		char[] mac = new char[ 64 ];
+		out.write( '[' );
+		boolean first = true;
+		for( InterfaceInfo i : snapshot.getInterfaces() ){
+			if( !first ) out.write( ',' );
+			first = false;
+
+			out.write( "{\"name\":" );
+			jsonString( i.getName(), out );
+			out.write( ",\"displayName\":" );
+			jsonString( i.getDisplayName(), out );
+			out.write( ",\"index\":" );
+			out.write( Integer.toString( i.getIndex() ) );
+			out.write( ",\"mac\":" );
+			if( i.hasHardwareAddress() ){
+				out.write( '"' );
+				out.write( mac, 0, formatMAC( i, mac ) );
+				out.write( '"' );
+			}
+			else out.write( "null" );
+			out.write( ",\"up\":" );
+			out.write( Boolean.toString( i.isUp() ) );
+			out.write( ",\"loopback\":" );
+			out.write( Boolean.toString( i.isLoopback() ) );
+			out.write( ",\"virtual\":" );
+			out.write( Boolean.toString( i.isVirtual() ) );
+			out.write( ",\"mtu\":" );
+			out.write( Integer.toString( i.getMTU() ) );
+			out.write( ",\"addresses\":[" );
+			List<InetAddress> addresses = i.getAddresses();
+			for( int a = 0; a < addresses.size(); a++ ){
+				if( a > 0 ) out.write( ',' );
+				jsonString( addresses.get( a ).getHostAddress(), out );
+			}
+			out.write( "]}" );
+		}
+		out.write( ']' );
+		out.flush();
+	}
+
+
+	/**
+	 * This method writes the snapshot as CSV with the header {@link #CSV_HEADER} and one row for each Network
+	 * Interface. The addresses of a interface are separated by spaces.
+	 * @param snapshot {@link InterfaceSnapshot} the interfaces to write.
+	 * @param out {@link Writer} where to write.
+	 * @throws IOException if is not possible to write.
+	 * @throws IllegalArgumentException if an argument is null.
+	 */
+	public static void writeCSV( InterfaceSnapshot snapshot, Writer out ) throws IOException, IllegalArgumentException{
+		check( snapshot, out );
+
+		char[] mac = new char[ 64 ];
+		out.write( CSV_HEADER );
+		out.write( "\r\n" );
+		for( InterfaceInfo i : snapshot.getInterfaces() ){
+			csvField( i.getName(), out );
+			out.write( ',' );
+			csvField( i.getDisplayName(), out );
+			out.write( ',' );
+			out.write( Integer.toString( i.getIndex() ) );
+			out.write( ',' );
+			out.write( mac, 0, formatMAC( i, mac ) );
+			out.write( ',' );
+			out.write( Boolean.toString( i.isUp() ) );
+			out.write( ',' );
+			out.write( Boolean.toString( i.isLoopback() ) );
+			out.write( ',' );
+			out.write( Boolean.toString( i.isVirtual() ) );
+			out.write( ',' );
+			out.write( Integer.toString( i.getMTU() ) );
+			out.write( ',' );
+			List<InetAddress> addresses = i.getAddresses();
+			for( int a = 0; a < addresses.size(); a++ ){
+				if( a > 0 ) out.write( ' ' );
+				out.write( addresses.get( a ).getHostAddress() );
+			}
+			out.write( "\r\n" );
+		}
+		out.flush();
+	}
+
+
+	private static void check( InterfaceSnapshot snapshot, Writer out ) throws IllegalArgumentException{
+		if( snapshot == null || out == null )
+			throw new IllegalArgumentException( "Snapshot and writer can not be null." );
+	}
+
+
+	/* Writes the MAC into the buffer, returns the chars written. */
+	private static int formatMAC( InterfaceInfo i, char[] buffer ){
+		byte[] mac = i.mac();
+		if( MacFormat.length( mac ) > buffer.length )
+			return 0; // not a real MAC address
+		return MacFormat.format( mac, ':', buffer, 0 );
+	}
+
+
+	private static void jsonString( String s, Writer out ) throws IOException{
+		if( s == null ){
+			out.write( "null" );
+			return;
+		}
+
+		out.write( '"' );
+		for( int i = 0; i < s.length(); i++ ){
+			char c = s.charAt( i );
+			if( c == '"' || c == '\\' ){
+				out.write( '\\' );
+				out.write( c );
+			}
+			else if( c < 0x20 ){
+				out.write( "\\u00" );
+				out.write( Character.forDigit( c >> 4, 16 ) );
+				out.write( Character.forDigit( c & 0xF, 16 ) );
+			}
+			else out.write( c );
+		}
+		out.write( '"' );
+	}
+
+
+	private static void csvField( String s, Writer out ) throws IOException{
+		if( s == null )
+			return;
+
+		boolean quote = false;
+		for( int i = 0; i < s.length() && !quote; i++ ){
+			char c = s.charAt( i );
+			quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+		}
+		if( !quote ){
+			out.write( s );
+			return;
+		}
+
+		out.write( '"' );
+		for( int i = 0; i < s.length(); i++ ){
+			char c = s.charAt( i );
+			if( c == '"' ) out.write( '"' );
+			out.write( c );
+		}
+		out.write( '"' );
+	}
+}
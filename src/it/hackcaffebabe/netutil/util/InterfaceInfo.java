@@ -0,0 +1,167 @@
+package it.hackcaffebabe.netutil.util;
+
+import java.net.InetAddress;
+import java.net.InterfaceAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * This class describes a Network Interface at the time it's read, and it never changes.<br>
+ * Unlike {@link NetworkInterface} its getters don't ask anything to the system.
+ *
+ * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
+ * @version 1.0
+ */
+public final class InterfaceInfo
+{
+	private final String name;
+	private final String displayName;
+	private final int index;
+	private final byte[] mac;
+	private final List<InetAddress> addresses;
+	private final boolean up;
+	private final boolean loopback;
+	private final boolean virtual;
+	private final int mtu;
+
+	private InterfaceInfo( NetworkInterface net ) throws SocketException{
+		this.name = net.getName();
+		this.displayName = net.getDisplayName();
+		this.index = net.getIndex();
+		this.mac = net.getHardwareAddress();
+		List<InetAddress> a = new ArrayList<>();
+		for( InterfaceAddress i : net.getInterfaceAddresses() )
+			a.add( i.getAddress() );
+		this.addresses = Collections.unmodifiableList( a );
+		this.up = net.isUp();
+		this.loopback = net.isLoopback();
+		this.virtual = net.isVirtual();
+		this.mtu = net.getMTU();
+	}
+
+
+	/**
+	 * This method reads the Network Interface given.
+	 * @param net {@link NetworkInterface} to read.
+	 * @return {@link InterfaceInfo} the description of Network Interface.
+	 * @throws SocketException if is not possible to read the Network Interface.
+	 * @throws IllegalArgumentException if argument is null.
+	 */
+	public static InterfaceInfo of( NetworkInterface net ) throws SocketException, IllegalArgumentException{
+		if( net == null )
+			throw new IllegalArgumentException( "Network Interface can not be null." );
+		return new InterfaceInfo( net );
+	}
+
+
+	/**
+	 * Returns the name of Network Interface, like eth0.
+	 * @return {@link String} the name.
+	 */
+	public String getName(){ return this.name; }
+
+
+	/**
+	 * Returns the display name of Network Interface.
+	 * @return {@link String} the display name.
+	 */
+	public String getDisplayName(){ return this.displayName; }
+
+
+	/**
+	 * Returns the index of Network Interface.
+	 * @return {@link Integer} the index, -1 if unknown.
+	 */
+	public int getIndex(){ return this.index; }
+
+
+	/**
+	 * Returns a copy of MAC address of Network Interface.
+	 * @return {@link Byte} array of MAC address, null if the interface doesn't have it, like the loopback.
+	 */
+	public byte[] getHardwareAddress(){ return this.mac == null ? null : this.mac.clone(); }
+
+
+	/**
+	 * Returns true if the Network Interface has a MAC address.
+	 * @return {@link Boolean} true if there is a MAC address, otherwise false.
+	 */
+	public boolean hasHardwareAddress(){ return this.mac != null; }
+
+
+	/**
+	 * Returns the addresses of Network Interface.
+	 * @return {@link List} of {@link InetAddress} not modifiable.
+	 */
+	public List<InetAddress> getAddresses(){ return this.addresses; }
+
+
+	/**
+	 * Returns true if the Network Interface is up.
+	 * @return {@link Boolean} true if the interface is up, otherwise false.
+	 */
+	public boolean isUp(){ return this.up; }
+
+
+	/**
+	 * Returns true if the Network Interface is a loopback.
+	 * @return {@link Boolean} true if the interface is a loopback, otherwise false.
+	 */
+	public boolean isLoopback(){ return this.loopback; }
+
+
+	/**
+	 * Returns true if the Network Interface is a virtual one, like eth0:1.
+	 * @return {@link Boolean} true if the interface is virtual, otherwise false.
+	 */
+	public boolean isVirtual(){ return this.virtual; }
+
+
+	/**
+	 * Returns the Maximum Transmission Unit of Network Interface.
+	 * @return {@link Integer} the MTU.
+	 */
+	public int getMTU(){ return this.mtu; }
+
+
+	/* Package access to the MAC without copy, for the exporter. */
+	byte[] mac(){ return this.mac; }
+
+
+	@Override
+	public String toString(){
+		return this.name + " (" + this.displayName + ") index=" + this.index + " up=" + this.up + " mtu=" + this.mtu + " " + this.addresses;
+	}
+
+
+	@Override
+	public int hashCode(){
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + this.name.hashCode();
+		result = prime * result + this.index;
+		result = prime * result + Arrays.hashCode( this.mac );
+		result = prime * result + this.addresses.hashCode();
+		result = prime * result + (this.up ? 1 : 0);
+		result = prime * result + this.mtu;
+		return result;
+	}
+
+
+	@Override
+	public boolean equals( Object obj ){
+		if( this == obj )
+			return true;
+		if( !(obj instanceof InterfaceInfo) )
+			return false;
+		InterfaceInfo o = (InterfaceInfo)obj;
+		return this.name.equals( o.name ) && Objects.equals( this.displayName, o.displayName ) && this.index == o.index
+				&& Arrays.equals( this.mac, o.mac ) && this.addresses.equals( o.addresses ) && this.up == o.up
+				&& this.loopback == o.loopback && this.virtual == o.virtual && this.mtu == o.mtu;
+	}
+}
@@ -0,0 +1,161 @@
+package it.hackcaffebabe.netutil.util;
+
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class holds all the Network Interfaces of computer read at the same time, and it never changes.<br>
+ * Two snapshots can be compared to find the interfaces added, removed or changed between them:
+ * <pre>
+ * InterfaceSnapshot before = InterfaceSnapshot.capture();
+ * ...
+ * InterfaceSnapshot now = InterfaceSnapshot.capture();
+ * for( InterfaceInfo i : now.getAdded( before ) )
+ *     System.out.println( "new interface " + i.getName() );
+ * </pre>
+ *
+ * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
+ * @version 1.0
+ */
+public final class InterfaceSnapshot
+{
+	/**Interfaces by name, in order of system*/
+	private final Map<String, InterfaceInfo> interfaces;
+	private final long timestamp;
+
+	private InterfaceSnapshot( Map<String, InterfaceInfo> interfaces, long timestamp ){
+		this.interfaces = Collections.unmodifiableMap( interfaces );
+		this.timestamp = timestamp;
+	}
+
+
+	/**
+	 * This method reads all the Network Interfaces on the computer.<br>
+	 * A interface removed while it's read is not in the snapshot.
+	 * @return {@link InterfaceSnapshot} the Network Interfaces now.
+	 * @throws SocketException if is not possible to retries network interfaces.
+	 */
+	public static InterfaceSnapshot capture() throws SocketException{
+		Map<String, InterfaceInfo> m = new LinkedHashMap<>();
+		Enumeration<NetworkInterface> nets = NetworkInterface.getNetworkInterfaces();
+		while( nets != null && nets.hasMoreElements() ){
+			NetworkInterface net = nets.nextElement();
+			try{ m.put( net.getName(), InterfaceInfo.of( net ) ); }
+			catch( SocketException e ) {} // removed meanwhile
+		}
+		return new InterfaceSnapshot( m, System.currentTimeMillis() );
+	}
+
+
+	/**
+	 * Returns the Network Interfaces of snapshot.
+	 * @return {@link List} of {@link InterfaceInfo} in order of system.
+	 */
+	public List<InterfaceInfo> getInterfaces(){
+		return new ArrayList<>( this.interfaces.values() );
+	}
+
+
+	/**
+	 * Returns the Network Interface with the name given.
+	 * @param name {@link String} the name of interface, like eth0.
+	 * @return {@link InterfaceInfo} the interface, null if there isn't.
+	 */
+	public InterfaceInfo get( String name ){
+		return this.interfaces.get( name );
+	}
+
+
+	/**
+	 * Returns the display names of Network Interfaces, like {@link NetUtil#getInterfacesNames()}.
+	 * @return {@link List} of display names in order of system.
+	 */
+	public List<String> getDisplayNames(){
+		List<String> names = new ArrayList<>( this.interfaces.size() );
+		for( InterfaceInfo i : this.interfaces.values() )
+			names.add( i.getDisplayName() );
+		return names;
+	}
+
+
+	/**
+	 * Returns the number of Network Interfaces.
+	 * @return {@link Integer} the number of interfaces.
+	 */
+	public int size(){ return this.interfaces.size(); }
+
+
+	/**
+	 * Returns when the snapshot is read.
+	 * @return {@link Long} the time in milliseconds since epoch.
+	 */
+	public long getTimestamp(){ return this.timestamp; }
+
+
+	/**
+	 * Returns the interfaces of this snapshot that are not in the previous one.
+	 * @param previous {@link InterfaceSnapshot} the older snapshot, null for none.
+	 * @return {@link List} of {@link InterfaceInfo} added.
+	 */
+	public List<InterfaceInfo> getAdded( InterfaceSnapshot previous ){
+		List<InterfaceInfo> l = new ArrayList<>();
+		for( InterfaceInfo i : this.interfaces.values() )
+			if( previous == null || !previous.interfaces.containsKey( i.getName() ) )
+				l.add( i );
+		return l;
+	}
+
+
+	/**
+	 * Returns the interfaces of previous snapshot that are not in this one.
+	 * @param previous {@link InterfaceSnapshot} the older snapshot, null for none.
+	 * @return {@link List} of {@link InterfaceInfo} removed, as they were in previous snapshot.
+	 */
+	public List<InterfaceInfo> getRemoved( InterfaceSnapshot previous ){
+		List<InterfaceInfo> l = new ArrayList<>();
+		if( previous != null )
+			for( InterfaceInfo i : previous.interfaces.values() )
+				if( !this.interfaces.containsKey( i.getName() ) )
+					l.add( i );
+		return l;
+	}
+
+
+	/**
+	 * Returns the interfaces that are in both snapshots but with something different, like addresses or state.
+	 * @param previous {@link InterfaceSnapshot} the older snapshot, null for none.
+	 * @return {@link List} of {@link InterfaceInfo} changed, as they are in this snapshot.
+	 */
+	public List<InterfaceInfo> getChanged( InterfaceSnapshot previous ){
+		List<InterfaceInfo> l = new ArrayList<>();
+		if( previous != null )
+			for( InterfaceInfo i : this.interfaces.values() ){
+				InterfaceInfo old = previous.interfaces.get( i.getName() );
+				if( old != null && !old.equals( i ) )
+					l.add( i );
+			}
+		return l;
+	}
+
+
+	/**
+	 * Returns true if the interfaces of two snapshots are the same, the time they are read is ignored.
+	 * @param other {@link InterfaceSnapshot} the snapshot to compare.
+	 * @return {@link Boolean} true if nothing changed, otherwise false.
+	 */
+	public boolean sameAs( InterfaceSnapshot other ){
+		return other != null && this.interfaces.equals( other.interfaces );
+	}
+
+
+	@Override
+	public String toString(){
+		return this.interfaces.values().toString();
+	}
+}
@@ -0,0 +1,170 @@
+package it.hackcaffebabe.netutil.util;
+
+import java.net.SocketException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class keeps the last {@link InterfaceSnapshot} of computer and tells the listeners when it changes.<br>
+ * {@link #getSnapshot()} reads the Network Interfaces again only if the snapshot is older than the period,
+ * otherwise it's a read of memory. With {@link #start()} a daemon thread reads them every period, so the
+ * listeners are told about a change also if nobody asks the snapshot:
+ * <pre>
+ * InterfaceWatcher w = new InterfaceWatcher( 1000 );
+ * w.addListener( listener );
+ * w.start();
+ * </pre>
+ * The listeners are called by the thread that read the change, so they MUST be short.
+ *
+ * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
+ * @version 1.0
+ */
+public class InterfaceWatcher
+{
+	private final long periodNanos;
+	private final AtomicReference<Entry> current = new AtomicReference<>();
+	private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+	private Thread poller;
+
+	/**
+	 * Instance a watcher that reads the Network Interfaces at most once every period given.
+	 * @param periodMillis {@link Long} milliseconds a snapshot is valid and between two reads of poller.
+	 * @throws IllegalArgumentException if period is not greater than zero.
+	 */
+	public InterfaceWatcher( long periodMillis ) throws IllegalArgumentException{
+		if( periodMillis <= 0 )
+			throw new IllegalArgumentException( "Period must be greater than zero." );
+		this.periodNanos = TimeUnit.MILLISECONDS.toNanos( periodMillis );
+	}
+
+
+	/**
+	 * This method returns the last snapshot, reading the Network Interfaces only if it's older than the period.
+	 * @return {@link InterfaceSnapshot} the Network Interfaces.
+	 * @throws SocketException if is not possible to retries network interfaces.
+	 */
+	public InterfaceSnapshot getSnapshot() throws SocketException{
+		Entry e = this.current.get();
+		if( e != null && System.nanoTime() - e.expires < 0 )
+			return e.snapshot;
+		return this.refresh( false );
+	}
+
+
+	/**
+	 * This method reads the Network Interfaces now and tells the listeners if they changed.
+	 * @return {@link InterfaceSnapshot} the Network Interfaces.
+	 * @throws SocketException if is not possible to retries network interfaces.
+	 */
+	public InterfaceSnapshot refresh() throws SocketException{
+		return this.refresh( true );
+	}
+
+
+	/**
+	 * This method starts the daemon thread that reads the Network Interfaces every period.
+	 */
+	public synchronized void start(){
+		if( this.poller != null )
+			return;
+
+		this.poller = new Thread( new Runnable(){
+			@Override
+			public void run(){ poll(); }
+		}, "netutil-interface-watcher" );
+		this.poller.setDaemon( true );
+		this.poller.start();
+	}
+
+
+	/**
+	 * This method stops the daemon thread, if it's running.
+	 */
+	public synchronized void stop(){
+		if( this.poller != null ){
+			this.poller.interrupt();
+			this.poller = null;
+		}
+	}
+
+
+	/**
+	 * Adds a listener of changes.
+	 * @param l {@link Listener} the listener to add.
+	 * @throws IllegalArgumentException if argument is null.
+	 */
+	public void addListener( Listener l ) throws IllegalArgumentException{
+		if( l == null )
+			throw new IllegalArgumentException( "Listener can not be null." );
+		this.listeners.add( l );
+	}
+
+
+	/**
+	 * Removes a listener of changes.
+	 * @param l {@link Listener} the listener to remove.
+	 */
+	public void removeListener( Listener l ){
+		this.listeners.remove( l );
+	}
+
+
+	/* One thread at time reads the interfaces: the others wait and get its snapshot. */
+	private synchronized InterfaceSnapshot refresh( boolean force ) throws SocketException{
+		Entry e = this.current.get();
+		if( !force && e != null && System.nanoTime() - e.expires < 0 )
+			return e.snapshot;
+
+		InterfaceSnapshot now = InterfaceSnapshot.capture();
+		this.current.set( new Entry( now, System.nanoTime() + this.periodNanos ) );
+		// the first snapshot is not a change
+		if( e != null && !now.sameAs( e.snapshot ) )
+			for( Listener l : this.listeners ){
+				try{ l.interfacesChanged( e.snapshot, now ); }
+				catch( RuntimeException ex ) {} // a listener can not stop the others
+			}
+		return now;
+	}
+
+
+	private void poll(){
+		while( !Thread.currentThread().isInterrupted() ){
+			try{ this.refresh( true ); }
+			catch( SocketException e ) {} // keep the last snapshot and try again
+
+			try{ TimeUnit.NANOSECONDS.sleep( this.periodNanos ); }
+			catch( InterruptedException e ) { return; }
+		}
+	}
+
+
+	/**
+	 * Listener of changes of Network Interfaces.
+	 */
+	public interface Listener
+	{
+		/**
+		 * Called when the Network Interfaces changed, use {@link InterfaceSnapshot#getAdded(InterfaceSnapshot)},
+		 * {@link InterfaceSnapshot#getRemoved(InterfaceSnapshot)} and {@link InterfaceSnapshot#getChanged(InterfaceSnapshot)}
+		 * to know what changed.
+		 * @param previous {@link InterfaceSnapshot} the snapshot before the change.
+		 * @param current {@link InterfaceSnapshot} the snapshot after the change.
+		 */
+		void interfacesChanged( InterfaceSnapshot previous, InterfaceSnapshot current );
+	}
+
+
+	/* A snapshot and when it expires. */
+	private static final class Entry
+	{
+		final InterfaceSnapshot snapshot;
+		final long expires;
+
+		Entry( InterfaceSnapshot snapshot, long expires ){
+			this.snapshot = snapshot;
+			this.expires = expires;
+		}
+	}
+}
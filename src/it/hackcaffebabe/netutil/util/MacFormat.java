@@ -0,0 +1,102 @@
+package it.hackcaffebabe.netutil.util;
+
+/**
+ * This class writes MAC addresses as upper case hex bytes with a separator, like 0A:1B:2C:3D:4E:5F.<br>
+ * The hex digits of every byte value are taken from a table, and the chars can be written into an array or a
+ * {@link StringBuilder} given, so formatting many addresses doesn't create any object:
+ * <pre>
+ * char[] buffer = new char[ MacFormat.length( mac ) ];
+ * int n = MacFormat.format( mac, ':', buffer, 0 );
+ * </pre>
+ * A null MAC address, like the one of loopback interfaces, is written as no chars.
+ *
+ * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
+ * @version 1.0
+ */
+public final class MacFormat
+{
+	/**Two hex digits for every byte value*/
+	private static final char[] DIGITS = new char[ 512 ];
+	static{
+		char[] hex = "0123456789ABCDEF".toCharArray();
+		for( int i = 0; i < 256; i++ ){
+			DIGITS[ i * 2 ] = hex[ i >>> 4 ];
+			DIGITS[ i * 2 + 1 ] = hex[ i & 0xF ];
+		}
+	}
+
+	private MacFormat(){}
+
+
+	/**
+	 * This method returns the chars needed to write the MAC address given with a separator.
+	 * @param mac {@link Byte} array of MAC address, can be null.
+	 * @return {@link Integer} the number of chars, 0 if MAC is null or empty.
+	 */
+	public static int length( byte[] mac ){
+		return mac == null || mac.length == 0 ? 0 : mac.length * 3 - 1;
+	}
+
+
+	/**
+	 * This method writes the MAC address into the array given.
+	 * @param mac {@link Byte} array of MAC address, can be null.
+	 * @param separator {@link Character} the char between two bytes, like ':' or '-'.
+	 * @param dst {@link Character} array to write.
+	 * @param offset {@link Integer} position of dst where to start writing.
+	 * @return {@link Integer} the number of chars written, 0 if MAC is null or empty.
+	 * @throws IllegalArgumentException if dst is null or there is not enough space after offset.
+	 */
+	public static int format( byte[] mac, char separator, char[] dst, int offset ) throws IllegalArgumentException{
+		int length = length( mac );
+		if( dst == null || offset < 0 || offset + length > dst.length )
+			throw new IllegalArgumentException( "Buffer can not be null and must have " + length + " chars after offset." );
+
+		int o = offset;
+		for( int i = 0; length > 0 && i < mac.length; i++ ){
+			if( i > 0 )
+				dst[ o++ ] = separator;
+			int d = (mac[ i ] & 0xFF) << 1;
+			dst[ o++ ] = DIGITS[ d ];
+			dst[ o++ ] = DIGITS[ d + 1 ];
+		}
+		return length;
+	}
+
+
+	/**
+	 * This method appends the MAC address to the builder given.
+	 * @param mac {@link Byte} array of MAC address, can be null.
+	 * @param separator {@link Character} the char between two bytes, like ':' or '-'.
+	 * @param sb {@link StringBuilder} where to append.
+	 * @return {@link StringBuilder} the same builder given.
+	 * @throws IllegalArgumentException if sb is null.
+	 */
+	public static StringBuilder format( byte[] mac, char separator, StringBuilder sb ) throws IllegalArgumentException{
+		if( sb == null )
+			throw new IllegalArgumentException( "StringBuilder can not be null." );
+
+		for( int i = 0; mac != null && i < mac.length; i++ ){
+			if( i > 0 )
+				sb.append( separator );
+			int d = (mac[ i ] & 0xFF) << 1;
+			sb.append( DIGITS[ d ] ).append( DIGITS[ d + 1 ] );
+		}
+		return sb;
+	}
+
+
+	/**
+	 * This method returns the MAC address written with ':' as separator.
+	 * @param mac {@link Byte} array of MAC address, can be null.
+	 * @return {@link String} the formatted MAC address, empty if MAC is null or empty.
+	 */
+	public static String format( byte[] mac ){
+		int length = length( mac );
+		if( length == 0 )
+			return "";
+		char[] c = new char[ length ];
+		format( mac, ':', c, 0 );
+		return new String( c );
+	}
+}
@@ -2,11 +2,11 @@ package it.hackcaffebabe.netutil.util;
 
 import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.NetworkInterface;
 import java.net.SocketException;
 import java.net.URL;
 import java.net.UnknownHostException;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.List;
@@ -19,44 +19,103 @@ import java.util.List;
  */
 public class NetUtil
 {
+	/**URL checked by {@link #isInternetReachable()} if the system property netutil.reachability.url is missing*/
+	public static final String DEFAULT_REACHABILITY_URL = "http://173.194.35.179/";
+	/**Milliseconds the result of {@link #isInternetReachable()} is kept if the system property netutil.reachability.ttl is missing*/
+	public static final long DEFAULT_REACHABILITY_TTL = 10000;
+	/**Milliseconds to wait the connection and the response of a reachability check*/
+	public static final int REACHABILITY_TIMEOUT = 5000;
+	/**Milliseconds the snapshot of {@link #getInterfaceWatcher()} is valid*/
+	public static final long INTERFACES_PERIOD = 1000;
+	private static volatile ReachabilityCache reachability;
+	private static InterfaceWatcher interfaceWatcher;
+
 	/**
 	 * This method check if is reachable an Internet Connection with a custom {@link URL} given..<br>
+	 * It sends a HEAD request, so the content is not downloaded, and waits at most {@link #REACHABILITY_TIMEOUT}
+	 * milliseconds to connect and as much for the response.<br>
+	 * To check many URLs at the same time use {@link ReachabilityProber}.
 	 * @param urlToTest {@link URL} URL to test the if is reachable.
 	 * @return {@link Boolean} true if URL is reachable, otherwise false.
 	 */
 	public static boolean isInternetReachable( URL urlToTest ){
 		if( urlToTest == null ) return false;
 		
+		HttpURLConnection c = null;
 		try{
 			// Open a connection to that source.
-		    // Trying to retrieve data from the source. 
+		    // Asking only the headers of the source. 
 		    // If there is no connection, this line will fail
-		    ( (HttpURLConnection)urlToTest.openConnection() ).getContent();
-	        return true;
+			c = (HttpURLConnection)urlToTest.openConnection();
+			c.setConnectTimeout( REACHABILITY_TIMEOUT );
+			c.setReadTimeout( REACHABILITY_TIMEOUT );
+			c.setRequestMethod( "HEAD" );
+			c.setInstanceFollowRedirects( false );
+			return c.getResponseCode() < 400;
 		}
 		catch( UnknownHostException e ) { return false; }
 		catch( IOException e ) { return false; }
+		finally{
+			if( c != null ) c.disconnect();
+		}
 	}
 	
 	
 	/**
 	 * This method check if is reachable an Internet Connection.<br>
-	 * To do that it creates an HTTP connection with Google servers.
+	 * To do that it checks the URL of {@link #getReachabilityCache()}, by default an HTTP connection with Google
+	 * servers, and keeps the result for the time to live of cache.
 	 * @return {@link Boolean} true if it can create an HTTP connection with Google servers, otherwise false.
 	 */
 	public static boolean isInternetReachable(){
-	    try {
-	        // make a URL to a known source
-		    URL url = new URL( "http://173.194.35.179/" );
-		
-		    // Open a connection to that source.
-		    // Trying to retrieve data from the source. 
-		    // If there is no connection, this line will fail
-		    ( (HttpURLConnection)url.openConnection() ).getContent();
-	        return true;
-	    } 
-	    catch( UnknownHostException e ) { return false; }
-	    catch( IOException e ) { return false; }
+		return getReachabilityCache().isReachable();
+	}
+	
+	
+	/**
+	 * This method returns the cache used by {@link #isInternetReachable()}, created on first use.<br>
+	 * The URL checked is the system property <code>netutil.reachability.url</code>, or {@link #DEFAULT_REACHABILITY_URL}
+	 * if it's missing or invalid; the time to live is the system property <code>netutil.reachability.ttl</code>
+	 * in milliseconds, or {@link #DEFAULT_REACHABILITY_TTL}.
+	 * @return {@link ReachabilityCache} the cache of Internet reachability.
+	 */
+	public static ReachabilityCache getReachabilityCache(){
+		ReachabilityCache c = reachability;
+		if( c == null ){
+			synchronized( NetUtil.class ){
+				if( reachability == null )
+					reachability = new ReachabilityCache( getReachabilityURL(), Long.getLong( "netutil.reachability.ttl", DEFAULT_REACHABILITY_TTL ) );
+				c = reachability;
+			}
+		}
+		return c;
+	}
+	
+	
+	/**
+	 * This method sets the cache used by {@link #isInternetReachable()}, to check another URL, like a local host,
+	 * or to keep the result for another time.
+	 * @param cache {@link ReachabilityCache} the new cache.
+	 * @throws IllegalArgumentException if argument is null.
+	 */
+	public static void setReachabilityCache( ReachabilityCache cache ) throws IllegalArgumentException{
+		if( cache == null )
+			throw new IllegalArgumentException( "Reachability cache can not be null." );
+		synchronized( NetUtil.class ){
+			reachability = cache;
+		}
+	}
+	
+	
+	/* Returns the URL of system property, or the default one. */
+	private static URL getReachabilityURL(){
+		try{
+			return new URL( System.getProperty( "netutil.reachability.url", DEFAULT_REACHABILITY_URL ) );
+		}
+		catch( MalformedURLException e ) {
+			try{ return new URL( DEFAULT_REACHABILITY_URL ); }
+			catch( MalformedURLException never ) { throw new IllegalStateException( never ); }
+		}
 	}
 	
 	
@@ -72,22 +131,44 @@ public class NetUtil
 
 	
 	/**
-	 * This method returns a List of names of Network Interfaces on the computer.
+	 * This method returns a List of names of Network Interfaces on the computer.<br>
+	 * The names are taken from the snapshot of {@link #getInterfaceWatcher()}, so they can be old at most
+	 * {@link #INTERFACES_PERIOD} milliseconds.
 	 * @return {@link List} of name on the computer.
 	 * @throws SocketException if is not possible to retries network interfaces.  
 	 */
 	public static List<String> getInterfacesNames() throws SocketException{
-		ArrayList<String> name = new ArrayList<>();
-		for( NetworkInterface net : NetUtil.getInterfaces() )
-			name.add( net.getDisplayName() );
-		return name;
+		return getInterfaceWatcher().getSnapshot().getDisplayNames();
 	}
 	
 	
 	/**
-	 * This method returns the MAC address of Network Interface.
+	 * This method returns the snapshot of Network Interfaces on the computer, read at most once every
+	 * {@link #INTERFACES_PERIOD} milliseconds.
+	 * @return {@link InterfaceSnapshot} of Network Interfaces on the computer.
+	 * @throws SocketException if is not possible to retries network interfaces.
+	 */
+	public static InterfaceSnapshot getInterfaceSnapshot() throws SocketException{
+		return getInterfaceWatcher().getSnapshot();
+	}
+	
+	
+	/**
+	 * This method returns the watcher of Network Interfaces shared by this class, created on first use.<br>
+	 * Add a listener and start it to be told when the interfaces change.
+	 * @return {@link InterfaceWatcher} the shared watcher.
+	 */
+	public static synchronized InterfaceWatcher getInterfaceWatcher(){
+		if( interfaceWatcher == null )
+			interfaceWatcher = new InterfaceWatcher( INTERFACES_PERIOD );
+		return interfaceWatcher;
+	}
+
+	
+	/**
+	 * This method returns the MAC address of Network Interface, formatted by {@link MacFormat}.
 	 * @param inte {@link NetworkInterface} to retrieve MAC address.
-	 * @return {@link String} of formatted MAC address.
+	 * @return {@link String} of formatted MAC address, empty if the interface doesn't have it, like the loopback.
 	 * @throws SocketException if is not possible to retries MAC address as byte.
 	 * @throws IllegalArgumentException if argument is null.
 	 */
@@ -95,10 +176,6 @@ public class NetUtil
 		if( inte == null )
 			throw new IllegalArgumentException( "Network Interface can not be null." );
 			
-		byte[] mac = inte.getHardwareAddress();
-		StringBuilder sb = new StringBuilder();
-		for (int i = 0; i < mac.length; i++)
-			sb.append(String.format("%02X%s", mac[i], (i < mac.length - 1) ? ":" : ""));		
-		return sb.toString();
+		return MacFormat.format( inte.getHardwareAddress() );
 	}
 }
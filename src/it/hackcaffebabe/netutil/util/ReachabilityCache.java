@@ -0,0 +1,165 @@
+package it.hackcaffebabe.netutil.util;
+
+import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class keeps the reachability of a URL for a time to live, so checking it is only a read of memory.<br>
+ * When the value is expired the first caller checks the URL with {@link NetUtil#isInternetReachable(URL)} and
+ * the callers arrived meanwhile wait the same check, so there is never more than one check at time.<br>
+ * With {@link #startRefresher(long)} a daemon thread checks the URL periodically, and if the period is
+ * shorter than the time to live the callers never wait:
+ * <pre>
+ * ReachabilityCache c = new ReachabilityCache( new URL( "http://10.0.0.1/" ), 10000 );
+ * c.startRefresher( 5000 );
+ * if( c.isReachable() ) ...
+ * </pre>
+ *
+ * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
+ * @version 1.0
+ */
+public class ReachabilityCache
+{
+	private final URL target;
+	private final long ttlNanos;
+	/**Last check, null before the first one*/
+	private volatile Check last;
+	/**The check running now, null if there isn't*/
+	private final AtomicReference<CompletableFuture<Boolean>> running = new AtomicReference<>();
+	private ScheduledExecutorService refresher;
+
+	/**
+	 * Instance a cache of the reachability of URL given.
+	 * @param target {@link URL} the URL to check.
+	 * @param ttlMillis {@link Long} milliseconds a check is valid.
+	 * @throws IllegalArgumentException if target is null or ttl is negative.
+	 */
+	public ReachabilityCache( URL target, long ttlMillis ) throws IllegalArgumentException{
+		if( target == null )
+			throw new IllegalArgumentException( "URL to check can not be null." );
+		if( ttlMillis < 0 )
+			throw new IllegalArgumentException( "Time to live can not be negative." );
+		this.target = target;
+		this.ttlNanos = TimeUnit.MILLISECONDS.toNanos( ttlMillis );
+	}
+
+
+	/**
+	 * This method returns the reachability of URL, checking it only if the last check is expired.
+	 * @return {@link Boolean} true if URL is reachable, otherwise false.
+	 */
+	public boolean isReachable(){
+		Check c = this.last;
+		if( c != null && c.isValid() )
+			return c.reachable;
+		return this.check( false );
+	}
+
+
+	/**
+	 * This method checks the URL now, or waits the check already running.
+	 * @return {@link Boolean} true if URL is reachable, otherwise false.
+	 */
+	public boolean refresh(){
+		return this.check( true );
+	}
+
+
+	/**
+	 * This method starts a daemon thread that checks the URL every period given.<br>
+	 * If the refresher is already running it's restarted with the new period.
+	 * @param periodMillis {@link Long} milliseconds between two checks.
+	 * @throws IllegalArgumentException if period is not greater than zero.
+	 */
+	public synchronized void startRefresher( long periodMillis ) throws IllegalArgumentException{
+		if( periodMillis <= 0 )
+			throw new IllegalArgumentException( "Period of refresh must be greater than zero." );
+
+		this.stopRefresher();
+		this.refresher = Executors.newSingleThreadScheduledExecutor( new ThreadFactory(){
+			@Override
+			public Thread newThread( Runnable r ){
+				Thread t = new Thread( r, "netutil-reachability" );
+				t.setDaemon( true );
+				return t;
+			}
+		} );
+		this.refresher.scheduleWithFixedDelay( new Runnable(){
+			@Override
+			public void run(){ refresh(); }
+		}, 0, periodMillis, TimeUnit.MILLISECONDS );
+	}
+
+
+	/**
+	 * This method stops the refresher thread, if it's running.
+	 */
+	public synchronized void stopRefresher(){
+		if( this.refresher != null ){
+			this.refresher.shutdownNow();
+			this.refresher = null;
+		}
+	}
+
+
+	/* Checks the URL, or joins the check running. If force is false a valid value found meanwhile is returned. */
+	private boolean check( boolean force ){
+		while( true ){
+			CompletableFuture<Boolean> f = this.running.get();
+			if( f != null )
+				return f.join();
+
+			f = new CompletableFuture<>();
+			if( !this.running.compareAndSet( null, f ) )
+				continue;
+
+			try{
+				Check c = this.last;
+				if( force || c == null || !c.isValid() ){
+					c = new Check( NetUtil.isInternetReachable( this.target ), System.nanoTime() + this.ttlNanos );
+					this.last = c;
+				}
+				f.complete( c.reachable );
+				return c.reachable;
+			}
+			catch( RuntimeException e ) { f.completeExceptionally( e ); throw e; }
+			finally{
+				this.running.set( null );
+			}
+		}
+	}
+
+
+	/**
+	 * Returns the URL checked.
+	 * @return {@link URL} the URL checked.
+	 */
+	public URL getTarget(){ return this.target; }
+
+
+	/**
+	 * Returns the time to live of a check.
+	 * @return {@link Long} milliseconds a check is valid.
+	 */
+	public long getTTL(){ return TimeUnit.NANOSECONDS.toMillis( this.ttlNanos ); }
+
+
+	/* A check and when it expires. */
+	private static final class Check
+	{
+		final boolean reachable;
+		final long expires;
+
+		Check( boolean reachable, long expires ){
+			this.reachable = reachable;
+			this.expires = expires;
+		}
+
+		boolean isValid(){ return System.nanoTime() - this.expires < 0; }
+	}
+}
@@ -0,0 +1,297 @@
+package it.hackcaffebabe.netutil.util;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * This class checks many targets at the same time, opening a TCP connection to each one.<br>
+ * All the connections are started together with non blocking channels and waited by one selector, so
+ * probing many targets takes about the time of the slowest one and never more than the timeout given:
+ * <pre>
+ * ReachabilityProber p = new ReachabilityProber( 500 );
+ * for( ProbeResult r : p.probe( targets ) )
+ *     System.out.println( r );
+ * </pre>
+ * The host names are resolved in parallel before to connect, and the resolution counts into the timeout.
+ *
+ * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
+ * @version 1.0
+ */
+public class ReachabilityProber
+{
+	/**Threads that resolve the host names, created on first use*/
+	private static ExecutorService resolvers;
+
+	private final long timeoutNanos;
+
+	/**
+	 * Instance a prober with the timeout given.
+	 * @param timeoutMillis {@link Long} milliseconds to wait all the targets of one probe.
+	 * @throws IllegalArgumentException if timeout is not greater than zero.
+	 */
+	public ReachabilityProber( long timeoutMillis ) throws IllegalArgumentException{
+		if( timeoutMillis <= 0 )
+			throw new IllegalArgumentException( "Timeout must be greater than zero." );
+		this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos( timeoutMillis );
+	}
+
+
+	/**
+	 * This method checks the targets given, all at the same time.
+	 * @param targets {@link List} of {@link InetSocketAddress} host and port to connect, resolved or not.
+	 * @return {@link List} of {@link ProbeResult} in the same order of the targets.
+	 * @throws IllegalArgumentException if targets or one of them are null.
+	 */
+	public List<ProbeResult> probe( List<InetSocketAddress> targets ) throws IllegalArgumentException{
+		if( targets == null || targets.contains( null ) )
+			throw new IllegalArgumentException( "Targets to probe can not be null." );
+
+		long deadline = System.nanoTime() + this.timeoutNanos;
+		ProbeResult[] results = new ProbeResult[ targets.size() ];
+
+		// resolve all the names together
+		List<Future<InetSocketAddress>> resolved = new ArrayList<>();
+		for( final InetSocketAddress t : targets ){
+			if( t.isUnresolved() )
+				resolved.add( getResolvers().submit( new Callable<InetSocketAddress>(){
+					@Override
+					public InetSocketAddress call(){
+						return new InetSocketAddress( t.getHostString(), t.getPort() );
+					}
+				} ) );
+			else
+				resolved.add( null );
+		}
+
+		SocketChannel[] channels = new SocketChannel[ targets.size() ];
+		long[] started = new long[ targets.size() ];
+		try( Selector selector = Selector.open() ){
+			int pending = 0;
+			for( int i = 0; i < targets.size(); i++ ){
+				InetSocketAddress address = resolve( targets.get( i ), resolved.get( i ), deadline );
+				if( address == null || address.isUnresolved() ){
+					Status s = address == null ? Status.TIMEOUT : Status.UNRESOLVED;
+					results[ i ] = new ProbeResult( targets.get( i ), s, -1, s == Status.TIMEOUT ? "Resolution timed out." : "Unknown host." );
+					continue;
+				}
+
+				started[ i ] = System.nanoTime();
+				try{
+					channels[ i ] = SocketChannel.open();
+					channels[ i ].configureBlocking( false );
+					if( channels[ i ].connect( address ) )
+						results[ i ] = reachable( targets.get( i ), started[ i ] );
+					else{
+						channels[ i ].register( selector, SelectionKey.OP_CONNECT, i );
+						pending++;
+					}
+				}
+				catch( IOException e ) { results[ i ] = failed( targets.get( i ), started[ i ], e ); }
+			}
+
+			while( pending > 0 ){
+				long remaining = TimeUnit.NANOSECONDS.toMillis( deadline - System.nanoTime() );
+				if( remaining <= 0 )
+					break;
+
+				selector.select( remaining );
+
+				for( SelectionKey key : selector.selectedKeys() ){
+					int i = (Integer)key.attachment();
+					try{
+						if( channels[ i ].finishConnect() ){
+							results[ i ] = reachable( targets.get( i ), started[ i ] );
+							key.cancel();
+							pending--;
+						}
+					}
+					catch( IOException e ) {
+						results[ i ] = failed( targets.get( i ), started[ i ], e );
+						key.cancel();
+						pending--;
+					}
+				}
+				selector.selectedKeys().clear();
+			}
+		}
+		catch( IOException e ) {
+			// no selector: the targets not checked yet fail with the same error
+			for( int i = 0; i < results.length; i++ )
+				if( results[ i ] == null )
+					results[ i ] = new ProbeResult( targets.get( i ), Status.ERROR, -1, e.getMessage() );
+		}
+		finally{
+			for( SocketChannel c : channels )
+				closeQuietly( c );
+		}
+
+		for( int i = 0; i < results.length; i++ )
+			if( results[ i ] == null )
+				results[ i ] = new ProbeResult( targets.get( i ), Status.TIMEOUT, -1, "Connection timed out." );
+		return Arrays.asList( results );
+	}
+
+
+	/**
+	 * This method checks the hosts of URLs given, all at the same time.<br>
+	 * A URL without port is checked on the default port of its protocol.
+	 * @param urls {@link List} of {@link URL} to check.
+	 * @return {@link List} of {@link ProbeResult} in the same order of the URLs.
+	 * @throws IllegalArgumentException if URLs or one of them are null.
+	 */
+	public List<ProbeResult> probeURLs( List<URL> urls ) throws IllegalArgumentException{
+		if( urls == null || urls.contains( null ) )
+			throw new IllegalArgumentException( "URLs to probe can not be null." );
+
+		List<InetSocketAddress> targets = new ArrayList<>( urls.size() );
+		for( URL u : urls )
+			targets.add( InetSocketAddress.createUnresolved( u.getHost(), u.getPort() == -1 ? u.getDefaultPort() : u.getPort() ) );
+		return this.probe( targets );
+	}
+
+
+	/* Returns the resolved address, or null if it's not resolved before the deadline. */
+	private static InetSocketAddress resolve( InetSocketAddress target, Future<InetSocketAddress> future, long deadline ){
+		if( future == null )
+			return target;
+
+		try{
+			return future.get( Math.max( 0, deadline - System.nanoTime() ), TimeUnit.NANOSECONDS );
+		}
+		catch( TimeoutException e ) { future.cancel( true ); return null; }
+		catch( ExecutionException e ) { return target; }
+		catch( InterruptedException e ) { Thread.currentThread().interrupt(); return null; }
+	}
+
+
+	private static ProbeResult reachable( InetSocketAddress target, long started ){
+		return new ProbeResult( target, Status.REACHABLE, System.nanoTime() - started, null );
+	}
+
+
+	private static ProbeResult failed( InetSocketAddress target, long started, IOException e ){
+		Status s = e instanceof ConnectException ? Status.REFUSED : Status.ERROR;
+		return new ProbeResult( target, s, System.nanoTime() - started, e.getMessage() );
+	}
+
+
+	private static void closeQuietly( SocketChannel c ){
+		if( c == null ) return;
+		try{ c.close(); }
+		catch( IOException e ) {}
+	}
+
+
+	private static synchronized ExecutorService getResolvers(){
+		if( resolvers == null )
+			resolvers = Executors.newCachedThreadPool( new ThreadFactory(){
+				@Override
+				public Thread newThread( Runnable r ){
+					Thread t = new Thread( r, "netutil-resolver" );
+					t.setDaemon( true );
+					return t;
+				}
+			} );
+		return resolvers;
+	}
+
+
+	/**
+	 * The outcome of probe of one target.
+	 */
+	public enum Status
+	{
+		/**The connection is opened*/
+		REACHABLE,
+		/**The host refused the connection*/
+		REFUSED,
+		/**The host name can not be resolved*/
+		UNRESOLVED,
+		/**The connection is not opened before the timeout*/
+		TIMEOUT,
+		/**The connection failed for other reasons, like an unreachable network*/
+		ERROR
+	}
+
+
+	/**
+	 * The result of probe of one target.
+	 */
+	public static final class ProbeResult
+	{
+		private final InetSocketAddress target;
+		private final Status status;
+		private final long latencyNanos;
+		private final String error;
+
+		private ProbeResult( InetSocketAddress target, Status status, long latencyNanos, String error ){
+			this.target = target;
+			this.status = status;
+			this.latencyNanos = latencyNanos;
+			this.error = error;
+		}
+
+
+		/**
+		 * Returns the target checked.
+		 * @return {@link InetSocketAddress} host and port of target.
+		 */
+		public InetSocketAddress getTarget(){ return this.target; }
+
+
+		/**
+		 * Returns the outcome of probe.
+		 * @return {@link Status} the outcome.
+		 */
+		public Status getStatus(){ return this.status; }
+
+
+		/**
+		 * Returns true if the connection is opened.
+		 * @return {@link Boolean} true if target is reachable, otherwise false.
+		 */
+		public boolean isReachable(){ return this.status == Status.REACHABLE; }
+
+
+		/**
+		 * Returns the time spent to connect, or to fail.
+		 * @param unit {@link TimeUnit} the unit of value returned.
+		 * @return {@link Long} the latency, -1 if the connection is not started.
+		 */
+		public long getLatency( TimeUnit unit ){
+			return this.latencyNanos < 0 ? -1 : unit.convert( this.latencyNanos, TimeUnit.NANOSECONDS );
+		}
+
+
+		/**
+		 * Returns the reason of failure.
+		 * @return {@link String} the error message, null if target is reachable.
+		 */
+		public String getError(){ return this.error; }
+
+
+		@Override
+		public String toString(){
+			String s = this.target.getHostString() + ":" + this.target.getPort() + " " + this.status;
+			if( this.latencyNanos >= 0 )
+				s += " " + TimeUnit.NANOSECONDS.toMicros( this.latencyNanos ) / 1000.0 + "ms";
+			return this.error == null ? s : s + " (" + this.error + ")";
+		}
+	}
+}
@@ -0,0 +1,689 @@
+package it.hackcaffebabe.netutil.support;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+
+
+/**
+ * <p>
+ * SMTP server that accepts and discards the messages, to load test the mailer on the local host.<br>
+ * Every connection is served by its own thread over a blocking {@link SocketChannel}. The server speaks ESMTP
+ * with PIPELINING, AUTH PLAIN and LOGIN and, if enabled, STARTTLS with a self signed certificate.<br>
+ * Slow or unreliable servers are simulated with a latency before every reply and after the data of every
+ * message, and with failures injected on the commands with a probability.
+ * </p>
+ * Use it like this, then point <code>mail.smtp.host</code> and <code>mail.smtp.port</code> at it:
+ * <pre>
+ * SmtpStub stub = new SmtpStub( 2525 );
+ * stub.setCredentials( "user", "password" );
+ * stub.enableStartTls();
+ * stub.injectFailure( "RCPT", 0.05, "451 4.7.1 Try again later" );
+ * stub.start();
+ * </pre>
+ * It can run alone too, see {@link #main(String[])}.
+ *
+ * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
+ * @version 1.0
+ */
+public class SmtpStub implements Closeable
+{
+	/**Password of the keystore with the self signed certificate*/
+	private static final char[] KEYSTORE_PASSWORD = "changeit".toCharArray();
+	/**Longest command line accepted*/
+	private static final int MAX_LINE = 4096;
+
+	private final int port;
+	private ServerSocketChannel server;
+	private final Set<Socket> sockets = Collections.newSetFromMap( new ConcurrentHashMap<Socket, Boolean>() );
+
+	private volatile String user, password;
+	private volatile SSLContext tls;
+	private volatile boolean pipelining = true;
+	private volatile long commandLatency, dataLatency;
+	private final Map<String, Failure> failures = new ConcurrentHashMap<>();
+	private volatile MessageListener listener;
+
+	private final AtomicLong connections = new AtomicLong(), messages = new AtomicLong(),
+			recipients = new AtomicLong(), bytes = new AtomicLong(), injected = new AtomicLong();
+
+	/**
+	 * Instance a server that will listen on the port given of loopback.
+	 * @param port {@link Integer} the port, 0 to use a free one.
+	 * @throws IllegalArgumentException if port is not a valid port.
+	 */
+	public SmtpStub(int port) throws IllegalArgumentException{
+		if(port < 0 || port > 65535)
+			throw new IllegalArgumentException( "Port must be between 0 and 65535." );
+		this.port = port;
+	}
+
+//====================================================================================================//
+// METHOD
+//====================================================================================================//
+	/**
+	 * Starts to accept the connections.
+	 * @throws IOException if the port can not be opened.
+	 * @throws IllegalStateException if the server is already started.
+	 */
+	public synchronized void start() throws IOException, IllegalStateException{
+		if(this.server != null)
+			throw new IllegalStateException( "SMTP stub is already started." );
+
+		this.server = ServerSocketChannel.open();
+		this.server.socket().setReuseAddress( true );
+		this.server.bind( new InetSocketAddress( InetAddress.getLoopbackAddress(), this.port ), 1024 );
+		daemon( new Runnable(){
+			@Override
+			public void run(){
+				accept();
+			}
+		}, "smtp-stub-acceptor" ).start();
+	}
+
+	/**
+	 * Stops the server and closes all the connections.
+	 */
+	@Override
+	public synchronized void close(){
+		if(this.server == null)
+			return;
+
+		closeQuietly( this.server );
+		for(Socket s: this.sockets)
+			closeQuietly( s );
+		this.server = null;
+	}
+
+	/**
+	 * Enables STARTTLS with the self signed certificate of this module, for CN localhost and 127.0.0.1.<br>
+	 * The clients must trust it, with <code>mail.smtp.ssl.trust=*</code> for example.
+	 * @throws IOException if the keystore can not be read.
+	 */
+	public void enableStartTls() throws IOException{
+		try (InputStream in = SmtpStub.class.getResourceAsStream( "/smtp-stub.p12" )) {
+			if(in == null)
+				throw new IOException( "Keystore smtp-stub.p12 not found." );
+
+			KeyStore ks = KeyStore.getInstance( "PKCS12" );
+			ks.load( in, KEYSTORE_PASSWORD );
+			KeyManagerFactory kmf = KeyManagerFactory.getInstance( KeyManagerFactory.getDefaultAlgorithm() );
+			kmf.init( ks, KEYSTORE_PASSWORD );
+			SSLContext context = SSLContext.getInstance( "TLS" );
+			context.init( kmf.getKeyManagers(), null, null );
+			this.tls = context;
+		} catch(GeneralSecurityException e) {
+			throw new IOException( "TLS can not be initialized.", e );
+		}
+	}
+
+	/**
+	 * Injects a failure on a command: the command is answered with the reply given instead of the normal one.<br>
+	 * The verb DATA fails after the message is received.
+	 * @param verb {@link String} the command, like MAIL, RCPT or DATA.
+	 * @param probability {@link Double} from 0 to 1, the probability that a command fails.
+	 * @param reply {@link String} the reply, like "451 4.7.1 Try again later".
+	 * @throws IllegalArgumentException if verb or reply are null or probability is out of range.
+	 */
+	public void injectFailure(String verb, double probability, String reply) throws IllegalArgumentException{
+		if(verb == null || reply == null)
+			throw new IllegalArgumentException( "Verb and reply can not be null." );
+		if(probability < 0 || probability > 1)
+			throw new IllegalArgumentException( "Probability must be between 0 and 1." );
+
+		if(probability == 0)
+			this.failures.remove( verb.toUpperCase( Locale.ROOT ) );
+		else
+			this.failures.put( verb.toUpperCase( Locale.ROOT ), new Failure( probability, reply ) );
+	}
+
+	/**
+	 * Removes all the failures injected.
+	 */
+	public void clearFailures(){
+		this.failures.clear();
+	}
+
+	private void accept(){
+		ServerSocketChannel s = this.server;
+		while( s != null && s.isOpen() ) {
+			try {
+				final SocketChannel channel = s.accept();
+				this.connections.incrementAndGet();
+				daemon( new Runnable(){
+					@Override
+					public void run(){
+						serve( channel );
+					}
+				}, "smtp-stub-connection" ).start();
+			} catch(ClosedChannelException e) {
+				return;
+			} catch(IOException e) {
+				// a failed accept doesn't stop the server
+			}
+		}
+	}
+
+	private void serve(SocketChannel channel){
+		Socket socket = channel.socket();
+		this.sockets.add( socket );
+		try {
+			socket.setTcpNoDelay( true );
+			new Connection( socket ).run();
+		} catch(IOException e) {
+			// connection closed by client or by close()
+		} finally {
+			this.sockets.remove( socket );
+			closeQuietly( channel );
+		}
+	}
+
+	/* Returns the reply of failure injected on verb, or null if the command doesn't fail this time. */
+	private String failure(String verb){
+		Failure f = this.failures.get( verb );
+		if(f == null || ThreadLocalRandom.current().nextDouble() >= f.probability)
+			return null;
+		this.injected.incrementAndGet();
+		return f.reply;
+	}
+
+	private static void sleep(long millis){
+		if(millis <= 0)
+			return;
+		try {
+			TimeUnit.MILLISECONDS.sleep( millis );
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static Thread daemon(Runnable r, String name){
+		Thread t = new Thread( r, name );
+		t.setDaemon( true );
+		return t;
+	}
+
+	private static void closeQuietly(Closeable c){
+		try {
+			c.close();
+		} catch(IOException e) {
+			// nothing to do
+		}
+	}
+
+	/**
+	 * Runs the server until the process is killed. Arguments:
+	 * <pre>
+	 * --port N               port to listen, 2525 by default
+	 * --user U --password P  credentials required, any by default
+	 * --starttls             enables STARTTLS
+	 * --no-pipelining        doesn't advertise PIPELINING
+	 * --latency MS           milliseconds before every reply
+	 * --data-latency MS      milliseconds after the data of every message
+	 * --fail VERB:P:REPLY    injects a failure, like RCPT:0.1:451 Try again later
+	 * </pre>
+	 * @param args {@link String} the arguments.
+	 * @throws Exception if the server can not start.
+	 */
+	public static void main(String[] args) throws Exception{
+		int port = 2525;
+		List<String[]> fails = new ArrayList<>();
+		String user = null, password = null;
+		boolean starttls = false, pipelining = true;
+		long latency = 0, dataLatency = 0;
+		for(int i = 0; i < args.length; i++) {
+			switch( args[i] ) {
+				case "--port":
+					port = Integer.parseInt( args[++i] );
+					break;
+				case "--user":
+					user = args[++i];
+					break;
+				case "--password":
+					password = args[++i];
+					break;
+				case "--starttls":
+					starttls = true;
+					break;
+				case "--no-pipelining":
+					pipelining = false;
+					break;
+				case "--latency":
+					latency = Long.parseLong( args[++i] );
+					break;
+				case "--data-latency":
+					dataLatency = Long.parseLong( args[++i] );
+					break;
+				case "--fail":
+					fails.add( args[++i].split( ":", 3 ) );
+					break;
+				default:
+					throw new IllegalArgumentException( "Unknown argument: " + args[i] );
+			}
+		}
+
+		SmtpStub stub = new SmtpStub( port );
+		stub.setCredentials( user, password );
+		if(starttls)
+			stub.enableStartTls();
+		stub.setPipelining( pipelining );
+		stub.setCommandLatency( latency );
+		stub.setDataLatency( dataLatency );
+		for(String[] f: fails)
+			stub.injectFailure( f[0], Double.parseDouble( f[1] ), f[2] );
+		stub.start();
+		System.out.println( "SMTP stub listening on 127.0.0.1:" + stub.getPort() );
+
+		while( true ) {
+			Thread.sleep( 10000 );
+			System.out.println( stub );
+		}
+	}
+
+//====================================================================================================//
+// GETTER
+//====================================================================================================//
+	/**
+	 * Returns the port of server, useful when it's started on a free port.
+	 * @return {@link Integer} the port, or the port given if the server is not started.
+	 */
+	public synchronized int getPort(){
+		return this.server == null ? this.port : this.server.socket().getLocalPort();
+	}
+
+	/**
+	 * Returns the number of connections accepted.
+	 * @return {@link Long} the connections.
+	 */
+	public long getConnectionCount(){
+		return this.connections.get();
+	}
+
+	/**
+	 * Returns the number of messages accepted.
+	 * @return {@link Long} the messages.
+	 */
+	public long getMessageCount(){
+		return this.messages.get();
+	}
+
+	/**
+	 * Returns the number of recipients accepted.
+	 * @return {@link Long} the recipients.
+	 */
+	public long getRecipientCount(){
+		return this.recipients.get();
+	}
+
+	/**
+	 * Returns the bytes of data of messages accepted.
+	 * @return {@link Long} the bytes.
+	 */
+	public long getByteCount(){
+		return this.bytes.get();
+	}
+
+	/**
+	 * Returns the number of failures injected.
+	 * @return {@link Long} the failures.
+	 */
+	public long getInjectedFailureCount(){
+		return this.injected.get();
+	}
+
+//====================================================================================================//
+// SETTER
+//====================================================================================================//
+	/**
+	 * Sets the credentials required by AUTH, with null credentials any login is accepted and AUTH is optional.
+	 * @param user {@link String} the user.
+	 * @param password {@link String} the password.
+	 */
+	public void setCredentials(String user, String password){
+		this.user = user;
+		this.password = password;
+	}
+
+	/**
+	 * Sets if PIPELINING is advertised, true by default.
+	 * @param pipelining {@link Boolean} true to advertise PIPELINING.
+	 */
+	public void setPipelining(boolean pipelining){
+		this.pipelining = pipelining;
+	}
+
+	/**
+	 * Sets the milliseconds waited before every reply.
+	 * @param millis {@link Long} the latency.
+	 */
+	public void setCommandLatency(long millis){
+		this.commandLatency = Math.max( 0, millis );
+	}
+
+	/**
+	 * Sets the milliseconds waited after the data of every message, before to accept it.
+	 * @param millis {@link Long} the latency.
+	 */
+	public void setDataLatency(long millis){
+		this.dataLatency = Math.max( 0, millis );
+	}
+
+	/**
+	 * Sets the listener of messages accepted, without listener the data are only counted.
+	 * @param listener {@link MessageListener} the listener, null for none.
+	 */
+	public void setMessageListener(MessageListener listener){
+		this.listener = listener;
+	}
+
+//====================================================================================================//
+// OVERRIDE
+//====================================================================================================//
+	@Override
+	public String toString(){
+		return "connections=" + this.connections + " messages=" + this.messages + " recipients=" + this.recipients
+				+ " bytes=" + this.bytes + " injectedFailures=" + this.injected;
+	}
+
+//====================================================================================================//
+// INNER CLASS
+//====================================================================================================//
+	/**
+	 * Listener of the messages accepted, called by the thread of connection.
+	 */
+	public interface MessageListener
+	{
+		/**
+		 * Called when a message is accepted.
+		 * @param from {@link String} the sender of envelope.
+		 * @param recipients {@link List} of recipients of envelope.
+		 * @param data {@link Byte} array of message, without the dot stuffing.
+		 */
+		void messageReceived(String from, List<String> recipients, byte[] data);
+	}
+
+	/* A failure injected on a verb. */
+	private static final class Failure
+	{
+		final double probability;
+		final String reply;
+
+		Failure(double probability, String reply){
+			this.probability = probability;
+			this.reply = reply;
+		}
+	}
+
+	/* The SMTP dialog of one connection. */
+	private final class Connection
+	{
+		private Socket socket;
+		private InputStream in;
+		private OutputStream out;
+		private final byte[] line = new byte[MAX_LINE];
+		private boolean secure, authenticated;
+		private String from;
+		private final List<String> to = new ArrayList<>();
+
+		Connection(Socket socket) throws IOException{
+			this.setSocket( socket );
+		}
+
+		void run() throws IOException{
+			this.reply( "220 localhost ESMTP Network-Util stub" );
+			String command;
+			while( (command = this.readLine()) != null ) {
+				int space = command.indexOf( ' ' );
+				String verb = (space < 0 ? command : command.substring( 0, space )).toUpperCase( Locale.ROOT );
+				String argument = space < 0 ? "" : command.substring( space + 1 );
+				sleep( commandLatency );
+
+				String failure = verb.equals( "DATA" ) ? null : failure( verb );
+				if(failure != null) {
+					this.reply( failure );
+					continue;
+				}
+
+				switch( verb ) {
+					case "EHLO":
+						this.reset();
+						this.ehlo();
+						break;
+					case "HELO":
+						this.reset();
+						this.reply( "250 localhost" );
+						break;
+					case "STARTTLS":
+						this.startTls();
+						break;
+					case "AUTH":
+						this.auth( argument );
+						break;
+					case "MAIL":
+						if(user != null && !this.authenticated) {
+							this.reply( "530 5.7.0 Authentication required" );
+						} else {
+							this.reset();
+							this.from = address( argument );
+							this.reply( "250 2.1.0 Ok" );
+						}
+						break;
+					case "RCPT":
+						if(this.from == null) {
+							this.reply( "503 5.5.1 Need MAIL command" );
+						} else {
+							this.to.add( address( argument ) );
+							this.reply( "250 2.1.5 Ok" );
+						}
+						break;
+					case "DATA":
+						this.data();
+						break;
+					case "RSET":
+						this.reset();
+						this.reply( "250 2.0.0 Ok" );
+						break;
+					case "NOOP":
+						this.reply( "250 2.0.0 Ok" );
+						break;
+					case "VRFY":
+						this.reply( "252 2.0.0 Cannot VRFY user" );
+						break;
+					case "QUIT":
+						this.reply( "221 2.0.0 Bye" );
+						this.out.flush();
+						return;
+					default:
+						this.reply( "500 5.5.2 Command not recognized" );
+				}
+			}
+		}
+
+		private void ehlo() throws IOException{
+			StringBuilder sb = new StringBuilder( "250-localhost\r\n" );
+			if(pipelining)
+				sb.append( "250-PIPELINING\r\n" );
+			if(tls != null && !this.secure)
+				sb.append( "250-STARTTLS\r\n" );
+			sb.append( "250-8BITMIME\r\n" );
+			sb.append( "250 AUTH PLAIN LOGIN" );
+			this.reply( sb.toString() );
+		}
+
+		private void startTls() throws IOException{
+			SSLContext context = tls;
+			if(context == null || this.secure) {
+				this.reply( "454 4.7.0 TLS not available" );
+				return;
+			}
+
+			this.reply( "220 2.0.0 Ready to start TLS" );
+			this.out.flush();
+			SSLSocket ssl = (SSLSocket) context.getSocketFactory().createSocket( this.socket, null, this.socket.getPort(), true );
+			ssl.setUseClientMode( false );
+			ssl.startHandshake();
+			this.setSocket( ssl );
+			this.secure = true;
+			this.authenticated = false;
+			this.reset();
+		}
+
+		private void auth(String argument) throws IOException{
+			String[] parts = argument.split( " " );
+			String mechanism = parts[0].toUpperCase( Locale.ROOT );
+			String u, p;
+			if(mechanism.equals( "PLAIN" )) {
+				String response = parts.length > 1 ? parts[1] : this.challenge( "" );
+				String[] fields = decode( response ).split( "\0", -1 );
+				if(fields.length != 3) {
+					this.reply( "501 5.5.2 Invalid PLAIN response" );
+					return;
+				}
+				u = fields[1];
+				p = fields[2];
+			} else if(mechanism.equals( "LOGIN" )) {
+				u = decode( parts.length > 1 ? parts[1] : this.challenge( "VXNlcm5hbWU6" ) );
+				p = decode( this.challenge( "UGFzc3dvcmQ6" ) );
+			} else {
+				this.reply( "504 5.5.4 Unrecognized authentication type" );
+				return;
+			}
+
+			if(user == null || (user.equals( u ) && String.valueOf( password ).equals( p ))) {
+				this.authenticated = true;
+				this.reply( "235 2.7.0 Authentication successful" );
+			} else {
+				this.reply( "535 5.7.8 Authentication credentials invalid" );
+			}
+		}
+
+		private void data() throws IOException{
+			if(this.to.isEmpty()) {
+				this.reply( "503 5.5.1 Need RCPT command" );
+				return;
+			}
+
+			this.reply( "354 End data with <CR><LF>.<CR><LF>" );
+			this.out.flush();
+			MessageListener l = listener;
+			ByteArrayOutputStream data = l == null ? null : new ByteArrayOutputStream();
+			long size = 0;
+			int n;
+			while( (n = this.readRaw()) >= 0 ) {
+				if(n == 3 && this.line[0] == '.' && this.line[1] == '\r')
+					break;
+				int start = this.line[0] == '.' ? 1 : 0; // dot stuffing
+				size += n - start;
+				if(data != null)
+					data.write( this.line, start, n - start );
+			}
+			if(n < 0)
+				throw new IOException( "Connection closed during DATA." );
+
+			sleep( dataLatency );
+			String failure = failure( "DATA" );
+			if(failure != null) {
+				this.reply( failure );
+			} else {
+				messages.incrementAndGet();
+				recipients.addAndGet( this.to.size() );
+				bytes.addAndGet( size );
+				if(l != null)
+					l.messageReceived( this.from, new ArrayList<>( this.to ), data.toByteArray() );
+				this.reply( "250 2.0.0 Ok: queued" );
+			}
+			this.reset();
+		}
+
+		private String challenge(String text) throws IOException{
+			this.reply( "334 " + text );
+			String response = this.readLine();
+			if(response == null)
+				throw new IOException( "Connection closed during AUTH." );
+			return response;
+		}
+
+		private void reset(){
+			this.from = null;
+			this.to.clear();
+		}
+
+		/* Writes a reply, flushed only when the client has not pipelined other commands. */
+		private void reply(String text) throws IOException{
+			this.out.write( text.getBytes( StandardCharsets.ISO_8859_1 ) );
+			this.out.write( '\r' );
+			this.out.write( '\n' );
+			if(this.in.available() == 0)
+				this.out.flush();
+		}
+
+		/* Returns a command without CRLF, or null at the end of stream. */
+		private String readLine() throws IOException{
+			this.out.flush();
+			int n = this.readRaw();
+			if(n < 0)
+				return null;
+			while( n > 0 && (this.line[n - 1] == '\n' || this.line[n - 1] == '\r') )
+				n--;
+			return new String( this.line, 0, n, StandardCharsets.ISO_8859_1 );
+		}
+
+		/* Reads a line with its end into line, a longer line is split. Returns its length or -1 at the end. */
+		private int readRaw() throws IOException{
+			int n = 0;
+			int b;
+			while( n < this.line.length && (b = this.in.read()) >= 0 ) {
+				this.line[n++] = (byte) b;
+				if(b == '\n')
+					return n;
+			}
+			return n == 0 ? -1 : n;
+		}
+
+		private void setSocket(Socket s) throws IOException{
+			this.socket = s;
+			this.in = new BufferedInputStream( s.getInputStream(), 16 * 1024 );
+			this.out = new BufferedOutputStream( s.getOutputStream(), 16 * 1024 );
+		}
+
+		private String address(String argument){
+			int start = argument.indexOf( '<' ), end = argument.indexOf( '>', start + 1 );
+			return start < 0 || end < 0 ? argument : argument.substring( start + 1, end );
+		}
+
+		private String decode(String base64){
+			try {
+				return new String( Base64.getDecoder().decode( base64.trim() ), StandardCharsets.UTF_8 );
+			} catch(IllegalArgumentException e) {
+				return "";
+			}
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package it.hackcaffebabe.netutil.mail;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.CRC32;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Checks that {@link MailSpool} never returns as pending the messages acked before a restart.
+ *
+ * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
+ * @version 1.0
+ */
+public class MailSpoolTest
+{
+	private static final long SEGMENT = 1 << 20;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void ackSurvivesReopens() throws IOException{
+		File d = this.folder.getRoot();
+		MailSpool s = new MailSpool( d, SEGMENT, 8 );
+		for(int i = 1; i <= 3; i++)
+			s.append( ("message " + i).getBytes( "US-ASCII" ) );
+		s.ack( 2 );
+		s.ack( 3 );
+		s.close();
+
+		// each open compacts the segment left by the one before, so the live message moves to a segment named
+		// after its id
+		String last = null;
+		for(int run = 1; run <= 3; run++) {
+			s = new MailSpool( d, SEGMENT, 8 );
+			assertEquals( "pending at run " + run, Collections.singletonList( 1L ), s.getPending() );
+			String[] names = d.list();
+			Arrays.sort( names );
+			if(last != null)
+				assertTrue( "segment " + names[names.length - 1] + " sorts before " + last, last.compareTo( names[names.length - 1] ) <= 0 );
+			last = names[names.length - 1];
+			if(run == 3)
+				s.ack( 1 );
+			s.close();
+		}
+
+		s = new MailSpool( d, SEGMENT, 8 );
+		assertTrue( "pending after the ack: " + s.getPending(), s.getPending().isEmpty() );
+		s.close();
+	}
+
+	@Test
+	public void ackBeforeEnqueueIsNotPending() throws IOException{
+		// the segments left by the versions that could name a new segment before an older one
+		File d = this.folder.getRoot();
+		write( new File( d, "spool-0000000000000002.log" ), 2, 1, new byte[0] );
+		write( new File( d, "spool-0000000000000004.log" ), 1, 1, "message 1".getBytes( "US-ASCII" ) );
+
+		MailSpool s = new MailSpool( d, SEGMENT, 8 );
+		assertTrue( "pending: " + s.getPending(), s.getPending().isEmpty() );
+		s.close();
+	}
+
+	/* Writes a segment of one record, with the same layout of MailSpool. */
+	private static void write(File f, int type, long id, byte[] body) throws IOException{
+		ByteBuffer b = ByteBuffer.allocate( 4 + 8 + 4 + body.length + 4 );
+		b.putInt( type ).putLong( id ).putInt( body.length ).put( body );
+		CRC32 crc = new CRC32();
+		crc.update( b.array(), 0, b.position() );
+		b.putInt( (int) crc.getValue() );
+		try (FileOutputStream out = new FileOutputStream( f )) {
+			out.write( b.array() );
+		}
+	}
+}
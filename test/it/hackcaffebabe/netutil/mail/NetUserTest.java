@@ -0,0 +1,112 @@
+package it.hackcaffebabe.netutil.mail;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import java.util.Random;
+import java.util.regex.Pattern;
+import org.junit.Test;
+
+
+/**
+ * Checks that the single pass validation of {@link NetUser} accepts the same addresses of the regular expression
+ * used before it, on a fixed corpus of edge cases and on random strings.
+ *
+ * @author Andrea Ghizzoni. More info at andrea.ghz@gmail.com
+ * @version 1.0
+ */
+public class NetUserTest
+{
+	/**The validation of NetUser before the single pass one*/
+	private static final Pattern REGEX = Pattern.compile( "^[_A-Za-z0-9-]+(\\.[_A-Za-z0-9-]+)*@[A-Za-z0-9]+(\\.[A-Za-z0-9]+)*(\\.[A-Za-z]{2,})$" );
+	/**Chars of random strings, the ones that matter for the validation are repeated to be more frequent*/
+	private static final String ALPHABET = "aZz09_-..@@@ éàа١\n\t+!#";
+	private static final String[] CORPUS = {
+			"", "a", "@", "a@", "@a", "@a.com", "a@b", "a@b.c", "a@b.co", "a@b.com", "A@B.COM", "a.b@c.com",
+			"some.user_name-01@mail.example.com", "_@a.bc", "-@a.bc", "a-b_c@d-e.com", "a@b_c.com", "a@1.com", "a@b.c1",
+			"a@b.1c", "a@b.cc1", "a@1.2.com",
+			// dots
+			".a@b.com", "a.@b.com", "a..b@c.com", "a@.b.com", "a@b..com", "a@b.com.", "a@b.com..", ".@b.com", "a@.",
+			"a@b.", ".", "..",
+			// '@' at the ends and more than one
+			"@a.com", "a.com@", "a@@b.com", "a@b@c.com", "@@", "a@b.com@", "@a@b.com",
+			// blanks and control chars
+			" a@b.com", "a@b.com ", "a @b.com", "a@b .com", "a@b.com\n", "\na@b.com", "a@b.c\nom", "a\t@b.com",
+			// non ASCII
+			"à@b.com", "a@è.com", "a@b.còm", "a@b.сom", "а@b.com", "a@b.co١", "١@b.com",
+			"a@b.com\u0000", "ａ@b.com",
+			// other symbols
+			"a+b@c.com", "a!@b.com", "a#b@c.com", "a@b-c.com", "a@b.c-m", "\"a\"@b.com", "a@[127.0.0.1]" };
+
+	@Test
+	public void corpusMatchesRegex(){
+		for(String s: CORPUS)
+			check( s );
+	}
+
+	@Test
+	public void randomStringsMatchRegex(){
+		Random r = new Random( 20130420L );
+		char[] chars = new char[24];
+		for(int n = 0; n < 200000; n++) {
+			int length = r.nextInt( chars.length + 1 );
+			for(int i = 0; i < length; i++)
+				chars[i] = ALPHABET.charAt( r.nextInt( ALPHABET.length() ) );
+			check( new String( chars, 0, length ) );
+		}
+	}
+
+	@Test
+	public void mutatedAddressesMatchRegex(){
+		// one change to a valid address is near the edge of the grammar more often than a random string
+		Random r = new Random( 20130421L );
+		String[] valid = { "a@b.com", "some.user_name-01@mail.example.com", "x-y.z_w@a1.b2.cc" };
+		for(int n = 0; n < 100000; n++) {
+			StringBuilder sb = new StringBuilder( valid[r.nextInt( valid.length )] );
+			for(int k = 1 + r.nextInt( 2 ); k > 0; k--) {
+				int i = r.nextInt( sb.length() + 1 );
+				char c = ALPHABET.charAt( r.nextInt( ALPHABET.length() ) );
+				switch( r.nextInt( 3 ) ) {
+					case 0:
+						sb.insert( i, c );
+						break;
+					case 1:
+						if(i < sb.length())
+							sb.setCharAt( i, c );
+						break;
+					default:
+						if(i < sb.length())
+							sb.deleteCharAt( i );
+				}
+			}
+			check( sb.toString() );
+		}
+	}
+
+	@Test
+	public void nullIsNotValid(){
+		assertFalse( NetUser.isValid( null ) );
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void constructorRefusesEmpty(){
+		new NetUser( "" );
+	}
+
+	/* Asserts that isValid, the constructor and the split agree with the regular expression. */
+	private static void check(String s){
+		boolean expected = REGEX.matcher( s ).matches();
+		assertEquals( "isValid( \"" + s + "\" )", expected, NetUser.isValid( s ) );
+
+		NetUser u;
+		try {
+			u = new NetUser( s );
+		} catch(IllegalArgumentException e) {
+			assertFalse( "constructor refused \"" + s + "\"", expected );
+			return;
+		}
+		assertEquals( "constructor accepted \"" + s + "\"", true, expected );
+		int at = s.indexOf( '@' );
+		assertEquals( s.substring( 0, at ), u.getUser() );
+		assertEquals( s.substring( at + 1 ), u.getDomain() );
+	}
+}